@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Overlapped file I/O for the streaming codecs. Reads run up to DEPTH buffers
+// ahead of the codec and writes up to DEPTH buffers behind it, on
+// AsynchronousFileChannel, so the disk and the compressor work at the same time
+// and wall time tends to the slower of the two instead of their sum.
+//
+// Each stream uses up to DEPTH + 1 buffers. When all of them are in flight the
+// codec waits for the oldest transfer (backpressure), so memory stays bounded
+// however far the disk falls behind. Every transfer names its file position,
+// so output order is strict whatever order the transfers complete in.
+//
+// Buffers are borrowed from a pool shared by all streams and returned on close.
+// At most MAX_DIRECT_BUFFERS direct buffers are ever allocated; when they are
+// all borrowed, streams get heap buffers, which the channel copies through its
+// own temporary direct buffers.
+public final class AsyncFiles {
+    static final int BUFFER_SIZE = 1024 * 1024;
+    static final int DEPTH = 4;
+    static final int MAX_DIRECT_BUFFERS = 64;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger DIRECT_BUFFERS = new AtomicInteger();
+
+    private AsyncFiles() {
+    }
+
+    public static InputStream newInputStream(Path path) throws IOException {
+        return new PrefetchingInputStream(path);
+    }
+
+    public static OutputStream newOutputStream(Path path) throws IOException {
+        return new WriteBehindOutputStream(path);
+    }
+
+    // Hands each buffer of the file to the consumer in order, without copying
+    // it to the heap, and returns the file size. The buffer is reused once the
+    // consumer returns.
+    public static long forEachBuffer(Path path, MappedFiles.WindowConsumer consumer) throws IOException {
+        try (PrefetchingInputStream in = new PrefetchingInputStream(path)) {
+            ByteBuffer buffer;
+            while ((buffer = in.nextBuffer()) != null) {
+                consumer.accept(buffer);
+            }
+            return in.size;
+        }
+    }
+
+    static ByteBuffer borrow() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        if (DIRECT_BUFFERS.getAndIncrement() < MAX_DIRECT_BUFFERS) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        DIRECT_BUFFERS.decrementAndGet();
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    // The buffer must no longer be in use by a transfer
+    static void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            POOL.add(buffer);
+        }
+    }
+
+    // Direct buffers allocated so far, pooled or borrowed
+    static int directBuffers() {
+        return DIRECT_BUFFERS.get();
+    }
+
+    // Direct buffers waiting in the pool
+    static int pooledBuffers() {
+        return POOL.size();
+    }
+
+    private static int await(Future<Integer> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for file I/O");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static final class Transfer {
+        final ByteBuffer buffer;
+        final long position;
+        final Future<Integer> result;
+
+        Transfer(ByteBuffer buffer, long position, Future<Integer> result) {
+            this.buffer = buffer;
+            this.position = position;
+            this.result = result;
+        }
+
+        int await() throws IOException {
+            return AsyncFiles.await(result);
+        }
+
+        // Waits without reporting errors, so the buffer is no longer in use
+        void quietly() {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // being closed or already failed
+            }
+        }
+    }
+
+    private static final class PrefetchingInputStream extends InputStream {
+        private final AsynchronousFileChannel channel;
+        private final long size;
+        private final ArrayDeque<Transfer> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+        private ByteBuffer current;
+        private long nextPosition;
+        private int borrowed;
+        private boolean closed;
+
+        PrefetchingInputStream(Path path) throws IOException {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+            prefetch();
+        }
+
+        // The next buffer of the file, flipped for reading, or null at the end.
+        // The previous one goes back to the pool.
+        ByteBuffer nextBuffer() throws IOException {
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            Transfer read = pending.poll();
+            if (read == null) {
+                return null;
+            }
+            ByteBuffer buffer = read.buffer;
+            int expected = (int) Math.min(BUFFER_SIZE, size - read.position);
+            int count = read.await();
+            // A short read leaves a gap before the next prefetched position; fill it here
+            while (count >= 0 && buffer.position() < expected) {
+                count = await(channel.read(buffer, read.position + buffer.position()));
+            }
+            if (buffer.position() < expected) {
+                free.add(buffer);
+                throw new IOException("File shrank while it was read");
+            }
+            buffer.flip();
+            current = buffer;
+            prefetch();
+            return buffer;
+        }
+
+        private void prefetch() {
+            while (pending.size() < DEPTH && nextPosition < size && (!free.isEmpty() || borrowed <= DEPTH)) {
+                ByteBuffer buffer = free.poll();
+                if (buffer == null) {
+                    buffer = borrow();
+                    borrowed++;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, size - nextPosition));
+                pending.add(new Transfer(buffer, nextPosition, channel.read(buffer, nextPosition)));
+                nextPosition += buffer.limit();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((current == null || !current.hasRemaining()) && nextBuffer() == null) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if ((current == null || !current.hasRemaining()) && nextBuffer() == null) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Reads still in flight write into pooled buffers; let them finish first
+            for (Transfer read : pending) {
+                read.quietly();
+                free.add(read.buffer);
+            }
+            pending.clear();
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            free.forEach(AsyncFiles::release);
+            free.clear();
+            channel.close();
+        }
+    }
+
+    private static final class WriteBehindOutputStream extends OutputStream {
+        private final AsynchronousFileChannel channel;
+        private final ArrayDeque<Transfer> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+        private ByteBuffer current;
+        private int borrowed = 1;
+        private long position;
+        private boolean closed;
+
+        WriteBehindOutputStream(Path path) throws IOException {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            current = borrow();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!current.hasRemaining()) {
+                submit();
+            }
+            current.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!current.hasRemaining()) {
+                    submit();
+                }
+                int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        // Makes everything written so far visible in the file
+        @Override
+        public void flush() throws IOException {
+            if (current.position() > 0) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                complete(pending.poll());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+            } finally {
+                for (Transfer write : pending) {
+                    write.quietly();
+                    free.add(write.buffer);
+                }
+                pending.clear();
+                free.add(current);
+                free.forEach(AsyncFiles::release);
+                free.clear();
+                channel.close();
+            }
+        }
+
+        // Starts writing the current buffer and takes a free one, waiting for
+        // the oldest write when all buffers are in flight
+        private void submit() throws IOException {
+            current.flip();
+            pending.add(new Transfer(current, position, channel.write(current, position)));
+            position += current.limit();
+            if (pending.size() > DEPTH) {
+                complete(pending.poll());
+            }
+            if (free.isEmpty() && borrowed <= DEPTH) {
+                free.add(borrow());
+                borrowed++;
+            }
+            while (free.isEmpty()) {
+                complete(pending.poll());
+            }
+            current = free.poll();
+            current.clear();
+        }
+
+        private void complete(Transfer write) throws IOException {
+            ByteBuffer buffer = write.buffer;
+            write.await();
+            // Finish a short write at the position it stopped at
+            while (buffer.hasRemaining()) {
+                await(channel.write(buffer, write.position + buffer.position()));
+            }
+            free.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Non-interactive entry point: runs (operation, source, target) jobs concurrently
+// in one process instead of one process per file.
+//
+//   java Main batch [-q] [-d dictionary] [-m manifest] [comp|decomp source target]...
+//
+// With -d, files are compressed with that SharedDictionary, and archives that
+// need it decompress with it.
+// Manifest lines are "operation source target", tab separated when names hold
+// spaces; blank lines and lines starting with # are skipped. "-m -" reads stdin.
+//
+// Each job runs on its own virtual thread where the runtime has them (a fixed
+// pool otherwise), so file I/O waits cost no platform thread. Codec work holds
+// a permit from a semaphore sized to the CPU count, and the number of jobs in
+// flight is capped so a huge manifest does not exhaust file handles.
+public class BatchRunner {
+    private static final int MAX_IN_FLIGHT = 1024;
+    // Smaller files are read whole before taking a CPU permit and written after
+    // releasing it; larger ones stream through the codec while holding it
+    private static final long IN_MEMORY_LIMIT = 1024 * 1024;
+
+    private final int cpus = Runtime.getRuntime().availableProcessors();
+    private final Semaphore cpuPermits = new Semaphore(cpus);
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final boolean quiet;
+    private final byte[] dictionary;
+
+    private BatchRunner(boolean quiet, byte[] dictionary) {
+        this.quiet = quiet;
+        this.dictionary = dictionary;
+    }
+
+    // Returns the process exit status: 0 when every job succeeded
+    public static int run(String[] args) {
+        boolean quiet = false;
+        String manifest = null;
+        String dictionaryName = null;
+        List<String[]> jobs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-q")) {
+                quiet = true;
+            } else if (args[i].equals("-m") && i + 1 < args.length) {
+                manifest = args[++i];
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                dictionaryName = args[++i];
+            } else if (i + 2 < args.length) {
+                jobs.add(new String[] { args[i], args[i + 1], args[i + 2] });
+                i += 2;
+            } else {
+                System.err.println("Usage: java Main batch [-q] [-d dictionary] [-m manifest] [comp|decomp source target]...");
+                return 2;
+            }
+        }
+
+        byte[] dictionary = null;
+        if (dictionaryName != null) {
+            try {
+                dictionary = SharedDictionary.load(Paths.get(dictionaryName));
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                return 2;
+            }
+        }
+        BatchRunner runner = new BatchRunner(quiet, dictionary);
+        long start = System.nanoTime();
+        ExecutorService executor = newJobExecutor(runner.cpus * 4);
+        try {
+            for (String[] job : jobs) {
+                runner.submit(executor, job[0], job[1], job[2]);
+            }
+            if (manifest != null) {
+                try (BufferedReader reader = manifest.equals("-")
+                        ? new BufferedReader(new InputStreamReader(System.in))
+                        : Files.newBufferedReader(Paths.get(manifest))) {
+                    runner.submitManifest(executor, reader);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            runner.failed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runner.failed.incrementAndGet();
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting; long jobs are expected
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Batch: %d ok, %d failed, %d bytes in %.2f s (%.1f MB/s, %.0f jobs/s)%n",
+                runner.succeeded.get(), runner.failed.get(), runner.bytes.get(), seconds,
+                runner.bytes.get() / (1024.0 * 1024.0) / seconds,
+                (runner.succeeded.get() + runner.failed.get()) / seconds);
+        return runner.failed.get() == 0 ? 0 : 1;
+    }
+
+    // Virtual threads need JDK 21; the build targets 17, so look them up reflectively
+    static ExecutorService newJobExecutor(int fallbackThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(fallbackThreads);
+        }
+    }
+
+    private void submitManifest(ExecutorService executor, BufferedReader reader)
+            throws IOException, InterruptedException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.indexOf('\t') >= 0 ? trimmed.split("\t+") : trimmed.split("\\s+");
+            if (fields.length != 3) {
+                System.err.println("Skipping manifest line " + lineNumber + ": expected operation, source and target");
+                failed.incrementAndGet();
+                continue;
+            }
+            submit(executor, fields[0], fields[1], fields[2]);
+        }
+    }
+
+    private void submit(ExecutorService executor, String operation, String source, String target)
+            throws InterruptedException {
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                runJob(operation, Paths.get(source), Paths.get(target));
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void runJob(String operation, Path source, Path target) {
+        long start = System.nanoTime();
+        try {
+            long uncompressed;
+            switch (operation) {
+                case "comp":
+                    uncompressed = compress(source, target);
+                    break;
+                case "decomp":
+                    uncompressed = decompress(source, target);
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + operation);
+            }
+            long nanos = System.nanoTime() - start;
+            bytes.addAndGet(uncompressed);
+            succeeded.incrementAndGet();
+            if (!quiet) {
+                System.out.printf("ok %s %s -> %s: %d bytes, %.1f MB/s%n", operation, source, target,
+                        uncompressed, uncompressed / (1024.0 * 1024.0) / (nanos / 1e9));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.out.println("failed " + operation + " " + source + " -> " + target + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+        }
+    }
+
+    // Same formats as the interactive comp command: directories become multi-entry
+    // archives, files a checked zlib stream, so verify and size work on them. Both
+    // return the uncompressed byte count.
+    private long compress(Path source, Path target) throws IOException, InterruptedException {
+        if (Files.isDirectory(source)) {
+            cpuPermits.acquire();
+            try {
+                return MultiArchive.pack(source, target, 1).bytesIn;
+            } finally {
+                cpuPermits.release();
+            }
+        }
+        long size = Files.size(source);
+        if (size <= IN_MEMORY_LIMIT) {
+            byte[] input = Files.readAllBytes(source);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(ZlibCodec.maxCompressedLength(input.length) + 64);
+            cpuPermits.acquire();
+            try (CompressingOutputStream out = new CompressingOutputStream(output,
+                    CompressingOutputStream.Mode.DEFLATE, Main.DEFAULT_LEVEL, dictionary, true)) {
+                out.write(input);
+            } finally {
+                cpuPermits.release();
+            }
+            Files.write(target, output.toByteArray());
+            return input.length;
+        }
+        cpuPermits.acquire();
+        try (CompressingOutputStream out = new CompressingOutputStream(Files.newOutputStream(target),
+                CompressingOutputStream.Mode.DEFLATE, Main.DEFAULT_LEVEL, dictionary, true)) {
+            MappedFiles.forEachWindow(source, out::write);
+            return size;
+        } finally {
+            cpuPermits.release();
+        }
+    }
+
+    // Counterpart of the interactive decomp command, checking for the formats in
+    // the same order and always extracting everything
+    private long decompress(Path source, Path target) throws IOException, InterruptedException {
+        if (ChunkStore.isRecipe(source)) {
+            cpuPermits.acquire();
+            try (OutputStream out = Files.newOutputStream(target)) {
+                return ChunkStore.restore(source, out).bytesIn;
+            } finally {
+                cpuPermits.release();
+            }
+        }
+        if (LongRangeArchive.isLongRangeArchive(source)) {
+            cpuPermits.acquire();
+            try {
+                return LongRangeArchive.decompress(source, target).bytesIn;
+            } finally {
+                cpuPermits.release();
+            }
+        }
+        if (MultiArchive.isMultiArchive(source)) {
+            cpuPermits.acquire();
+            try {
+                return MultiArchive.extractAll(source, target, 1).bytesIn;
+            } finally {
+                cpuPermits.release();
+            }
+        }
+        if (BlockArchive.isBlockArchive(source)) {
+            cpuPermits.acquire();
+            try (BlockArchive.Reader reader = new BlockArchive.Reader(source);
+                 OutputStream out = Files.newOutputStream(target)) {
+                reader.readRange(0, reader.size(), out);
+                return reader.size();
+            } finally {
+                cpuPermits.release();
+            }
+        }
+        long size = Files.size(source);
+        CompressingOutputStream.Mode mode = DecompressingInputStream.detectMode(source);
+        if (size <= IN_MEMORY_LIMIT) {
+            byte[] input = Files.readAllBytes(source);
+            // Unchecked zlib from older batches is inflated in one call; checked
+            // streams go through DecompressingInputStream, which verifies them
+            boolean plainZlib = mode == CompressingOutputStream.Mode.DEFLATE
+                    && (input.length < 4 || ByteBuffer.wrap(input).getInt() != BlockChecksums.HEADER_MAGIC);
+            byte[] output;
+            cpuPermits.acquire();
+            try {
+                if (plainZlib) {
+                    output = ZlibCodec.decompress(input);
+                } else {
+                    try (InputStream in = new DecompressingInputStream(new ByteArrayInputStream(input), mode)) {
+                        output = in.readAllBytes();
+                    }
+                }
+            } finally {
+                cpuPermits.release();
+            }
+            Files.write(target, output);
+            return output.length;
+        }
+        cpuPermits.acquire();
+        try (InputStream in = new DecompressingInputStream(Files.newInputStream(source), mode);
+             OutputStream out = Files.newOutputStream(target)) {
+            return in.transferTo(out);
+        } finally {
+            cpuPermits.release();
+        }
+    }
+}
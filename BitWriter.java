@@ -0,0 +1,54 @@
+// MSB-first bit writer over a caller-sized byte array. Bits collect in a
+// 64-bit accumulator and leave it 32 at a time, so writeBits never allocates.
+public final class BitWriter {
+    private final byte[] out;
+    private int position;
+    private long bitBuffer;
+    private int bitCount;
+
+    public BitWriter(byte[] out, int offset) {
+        this.out = out;
+        this.position = offset;
+    }
+
+    // Appends the low length bits of value; length must be at most 32
+    public void writeBits(int value, int length) {
+        bitBuffer = (bitBuffer << length) | (value & 0xFFFFFFFFL);
+        bitCount += length;
+        if (bitCount >= 32) {
+            bitCount -= 32;
+            int word = (int) (bitBuffer >>> bitCount);
+            out[position] = (byte) (word >>> 24);
+            out[position + 1] = (byte) (word >>> 16);
+            out[position + 2] = (byte) (word >>> 8);
+            out[position + 3] = (byte) word;
+            position += 4;
+        }
+    }
+
+    // Writes out the whole bytes of the pending bits and returns the end offset.
+    // Fewer than 8 bits stay behind, see partialByte.
+    public int flushBytes() {
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[position++] = (byte) (bitBuffer >>> bitCount);
+        }
+        return position;
+    }
+
+    // Bits left after flushBytes, MSB-aligned in a byte whose other bits are zero
+    public int partialByte() {
+        return bitCount == 0 ? 0 : (int) (bitBuffer << (8 - bitCount)) & 0xFF;
+    }
+
+    // Writes out the pending bits, zero-padding the last byte, and returns the end offset
+    public int finish() {
+        while (bitCount > 0) {
+            int shift = bitCount - 8;
+            out[position++] = (byte) (shift >= 0 ? bitBuffer >>> shift : bitBuffer << -shift);
+            bitCount = Math.max(shift, 0);
+        }
+        bitBuffer = 0;
+        return position;
+    }
+}
@@ -0,0 +1,409 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+// Seekable archive made of independently decodable blocks plus a trailing index,
+// so a byte range or a single block is extracted without inflating the rest.
+//
+// Layout:
+//   header   "CZBA", version byte, block size (int)
+//   blocks   one zlib stream per block of uncompressed input
+//   index    per block: uncompressed offset (long), compressed offset (long),
+//            compressed length (int), uncompressed length (int), CRC-32 (int)
+//   trailer  index offset (long), block count (int), "CZBI"
+//
+// The index gives every block's place in both files, so a full extraction
+// decodes the blocks in parallel, each straight into its slice of the mapped
+// output file.
+public class BlockArchive {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int HEADER_MAGIC = 0x435A4241; // "CZBA"
+    private static final int TRAILER_MAGIC = 0x435A4249; // "CZBI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 9;
+    private static final int INDEX_ENTRY_SIZE = 28;
+    private static final int TRAILER_SIZE = 16;
+
+    public static boolean isBlockArchive(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + TRAILER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            readFully(channel, header, 0);
+            readFully(channel, trailer, channel.size() - 4);
+            return header.getInt(0) == HEADER_MAGIC && trailer.getInt(0) == TRAILER_MAGIC;
+        }
+    }
+
+    public static class Writer extends OutputStream {
+        private final DataOutputStream out;
+        private final int blockSize;
+        private final byte[] block;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[64 * 1024];
+        private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        private final DataOutputStream index = new DataOutputStream(indexBytes);
+        private int blockLength;
+        private int blockCount;
+        private long uncompressedOffset;
+        private long position;
+        private boolean closed;
+
+        public Writer(OutputStream out) throws IOException {
+            this(out, DEFAULT_BLOCK_SIZE);
+        }
+
+        public Writer(OutputStream out, int blockSize) throws IOException {
+            this(out, blockSize, Deflater.DEFAULT_COMPRESSION);
+        }
+
+        public Writer(OutputStream out, int blockSize, int level) throws IOException {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+            }
+            this.out = new DataOutputStream(out);
+            this.blockSize = blockSize;
+            this.block = new byte[blockSize];
+            this.deflater = new Deflater(level);
+            this.out.writeInt(HEADER_MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeInt(blockSize);
+            this.position = HEADER_SIZE;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                int count = Math.min(len, blockSize - blockLength);
+                System.arraycopy(b, off, block, blockLength, count);
+                blockLength += count;
+                off += count;
+                len -= count;
+                if (blockLength == blockSize) {
+                    writeBlock();
+                }
+            }
+        }
+
+        public void write(ByteBuffer src) throws IOException {
+            ensureOpen();
+            while (src.hasRemaining()) {
+                int count = Math.min(src.remaining(), blockSize - blockLength);
+                src.get(block, blockLength, count);
+                blockLength += count;
+                if (blockLength == blockSize) {
+                    writeBlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (blockLength > 0) {
+                    writeBlock();
+                }
+                long indexOffset = position;
+                indexBytes.writeTo(out);
+                out.writeLong(indexOffset);
+                out.writeInt(blockCount);
+                out.writeInt(TRAILER_MAGIC);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            StageEvent event = Metrics.begin();
+            crc.reset();
+            crc.update(block, 0, blockLength);
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            long compressedOffset = position;
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+                position += count;
+            }
+            Metrics.end(event, Metrics.Stage.DEFLATE, blockLength, position - compressedOffset);
+
+            index.writeLong(uncompressedOffset);
+            index.writeLong(compressedOffset);
+            index.writeInt((int) (position - compressedOffset));
+            index.writeInt(blockLength);
+            index.writeInt((int) crc.getValue());
+            uncompressedOffset += blockLength;
+            blockCount++;
+            blockLength = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Archive closed");
+            }
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long[] uncompressedOffsets;
+        private final long[] compressedOffsets;
+        private final int[] compressedLengths;
+        private final int[] uncompressedLengths;
+        private final int[] checksums;
+        private final long size;
+
+        public Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long fileSize = channel.size();
+                if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+                    throw new ZipException("Not a block archive");
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+                readFully(channel, trailer, fileSize - TRAILER_SIZE);
+                if (header.getInt(0) != HEADER_MAGIC || trailer.getInt(12) != TRAILER_MAGIC) {
+                    throw new ZipException("Not a block archive");
+                }
+                if (header.get(4) != VERSION) {
+                    throw new ZipException("Unsupported block archive version " + header.get(4));
+                }
+
+                long indexOffset = trailer.getLong(0);
+                int blockCount = trailer.getInt(8);
+                if (blockCount < 0 || indexOffset < HEADER_SIZE
+                        || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != fileSize - TRAILER_SIZE) {
+                    throw new ZipException("Corrupt block archive index");
+                }
+                ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE);
+                readFully(channel, index, indexOffset);
+
+                uncompressedOffsets = new long[blockCount];
+                compressedOffsets = new long[blockCount];
+                compressedLengths = new int[blockCount];
+                uncompressedLengths = new int[blockCount];
+                checksums = new int[blockCount];
+                long total = 0;
+                for (int i = 0; i < blockCount; i++) {
+                    uncompressedOffsets[i] = index.getLong();
+                    compressedOffsets[i] = index.getLong();
+                    compressedLengths[i] = index.getInt();
+                    uncompressedLengths[i] = index.getInt();
+                    checksums[i] = index.getInt();
+                    if (uncompressedOffsets[i] != total || compressedLengths[i] < 0 || uncompressedLengths[i] < 0
+                            || compressedOffsets[i] + compressedLengths[i] > indexOffset) {
+                        throw new ZipException("Corrupt block archive index entry " + i);
+                    }
+                    total += uncompressedLengths[i];
+                }
+                size = total;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int blockCount() {
+            return uncompressedOffsets.length;
+        }
+
+        // Uncompressed size of the whole archive
+        public long size() {
+            return size;
+        }
+
+        public long blockOffset(int block) {
+            return uncompressedOffsets[block];
+        }
+
+        public byte[] readBlock(int block) throws IOException {
+            if (block < 0 || block >= blockCount()) {
+                throw new IndexOutOfBoundsException("Block " + block + " of " + blockCount());
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLengths[block]);
+            readFully(channel, compressed, compressedOffsets[block]);
+
+            byte[] output = new byte[uncompressedLengths[block]];
+            int count;
+            try {
+                count = ZlibCodec.decompress(compressed.array(), 0, compressed.limit(), output, 0);
+            } catch (ZipException e) {
+                throw new ZipException("Corrupt block " + block + ": " + e.getMessage());
+            }
+            if (count != output.length) {
+                throw new ZipException("Block " + block + " is shorter than its index entry");
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(output);
+            if ((int) crc.getValue() != checksums[block]) {
+                throw new ZipException("CRC mismatch in block " + block);
+            }
+            return output;
+        }
+
+        // Index of the block holding the given uncompressed offset
+        public int blockAt(long offset) {
+            if (offset < 0 || offset >= size) {
+                throw new IndexOutOfBoundsException("Offset " + offset + " outside 0.." + size);
+            }
+            int low = 0;
+            int high = blockCount() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (uncompressedOffsets[middle] <= offset) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        // Writes uncompressed bytes [offset, offset + length) to out, decoding
+        // only the blocks that overlap the range
+        public void readRange(long offset, long length, OutputStream out) throws IOException {
+            if (length < 0 || offset < 0 || offset + length > size) {
+                throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " outside 0.." + size);
+            }
+            long end = offset + length;
+            long position = offset;
+            while (position < end) {
+                int block = blockAt(position);
+                byte[] data = readBlock(block);
+                int from = (int) (position - uncompressedOffsets[block]);
+                int to = (int) Math.min(data.length, end - uncompressedOffsets[block]);
+                out.write(data, from, to - from);
+                position += to - from;
+            }
+        }
+
+        // Extracts the whole archive to target with the blocks decoded on the pool.
+        // The output file is mapped and every block is inflated directly into its
+        // slice of it, so nothing is copied or reassembled afterwards.
+        public void extractTo(Path target, ForkJoinPool pool) throws IOException {
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedFiles.Region region = new MappedFiles.Region(out, FileChannel.MapMode.READ_WRITE, size);
+                List<ForkJoinTask<Void>> tasks = new ArrayList<>(blockCount());
+                for (int i = 0; i < blockCount(); i++) {
+                    int block = i;
+                    tasks.add(pool.submit(() -> {
+                        readBlockInto(block, region);
+                        return null;
+                    }));
+                }
+                joinAll(tasks);
+            }
+        }
+
+        // Decodes every block on the pool, checking lengths and CRCs
+        public void verify(ForkJoinPool pool) throws IOException {
+            List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(blockCount());
+            for (int i = 0; i < blockCount(); i++) {
+                int block = i;
+                tasks.add(pool.submit(() -> readBlock(block)));
+            }
+            joinAll(tasks);
+        }
+
+        private void readBlockInto(int block, MappedFiles.Region region) throws IOException {
+            int length = uncompressedLengths[block];
+            ByteBuffer output = length == 0 ? null : region.slice(uncompressedOffsets[block], length);
+            if (output == null || output.remaining() < length) {
+                // Straddles two mapped segments; decode on the heap instead
+                region.put(uncompressedOffsets[block], readBlock(block), 0, length);
+                return;
+            }
+            // Positional reads, so the workers share the channel
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLengths[block]);
+            readFully(channel, compressed, compressedOffsets[block]);
+            try {
+                ZlibCodec.decompress(compressed, output);
+            } catch (ZipException e) {
+                throw new ZipException("Corrupt block " + block + ": " + e.getMessage());
+            }
+            if (output.hasRemaining()) {
+                throw new ZipException("Block " + block + " is shorter than its index entry");
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(output.flip());
+            if ((int) crc.getValue() != checksums[block]) {
+                throw new ZipException("CRC mismatch in block " + block);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Waits for every task, so none is still writing when this returns, then
+    // rethrows the first failure
+    private static void joinAll(List<? extends ForkJoinTask<?>> tasks) throws IOException {
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            Throwable failure = task.getException();
+            if (failure == null) {
+                continue;
+            }
+            // Submitted callables come back with their checked exceptions wrapped
+            for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new IOException(failure);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
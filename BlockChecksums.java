@@ -0,0 +1,144 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipException;
+
+// CRC-32C of every BLOCK_SIZE bytes of uncompressed data, kept while a stream
+// is compressed or decompressed so checking costs no extra pass. CRC32C is an
+// intrinsic on current JVMs. Checked streams wrap any CompressingOutputStream mode:
+//
+//   header   "CZCK", version byte, Mode ordinal
+//   body     the mode's usual output; block modes end it with an end marker
+//   trailer  CRC-32C per block (int), uncompressed size (long), block count (int), "CZCE"
+//
+// The fixed end of the trailer gives the original size without decompressing.
+public final class BlockChecksums {
+    static final int HEADER_MAGIC = 0x435A434B; // "CZCK"
+    static final int TRAILER_MAGIC = 0x435A4345; // "CZCE"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    static final int TRAILER_END_SIZE = 16;
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final CRC32C crc = new CRC32C();
+    private int[] checksums = new int[16];
+    private int blocks;
+    private int blockFill;
+    private long size;
+
+    public void update(byte[] b, int off, int len) {
+        size += len;
+        while (len > 0) {
+            int count = Math.min(len, BLOCK_SIZE - blockFill);
+            crc.update(b, off, count);
+            blockFill += count;
+            off += count;
+            len -= count;
+            if (blockFill == BLOCK_SIZE) {
+                endBlock();
+            }
+        }
+    }
+
+    // Leaves the position of src unchanged
+    public void update(ByteBuffer src) {
+        ByteBuffer view = src.duplicate();
+        size += view.remaining();
+        while (view.hasRemaining()) {
+            int count = Math.min(view.remaining(), BLOCK_SIZE - blockFill);
+            ByteBuffer slice = view.slice();
+            slice.limit(count);
+            crc.update(slice);
+            view.position(view.position() + count);
+            blockFill += count;
+            if (blockFill == BLOCK_SIZE) {
+                endBlock();
+            }
+        }
+    }
+
+    // Closes the last, partial block
+    public void finish() {
+        if (blockFill > 0) {
+            endBlock();
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int blockCount() {
+        return blocks;
+    }
+
+    void writeTrailer(DataOutputStream out) throws IOException {
+        for (int i = 0; i < blocks; i++) {
+            out.writeInt(checksums[i]);
+        }
+        out.writeLong(size);
+        out.writeInt(blocks);
+        out.writeInt(TRAILER_MAGIC);
+    }
+
+    // Compares the finished checksums with trailer[0, length), all bytes after the body
+    void verify(byte[] trailer, int length) throws ZipException {
+        ByteBuffer buffer = ByteBuffer.wrap(trailer, 0, length);
+        if (length < TRAILER_END_SIZE || buffer.getInt(length - 4) != TRAILER_MAGIC) {
+            throw new ZipException("Missing checksum trailer");
+        }
+        long expectedSize = buffer.getLong(length - TRAILER_END_SIZE);
+        int expectedBlocks = buffer.getInt(length - 8);
+        if (expectedBlocks < 0 || length != 4L * expectedBlocks + TRAILER_END_SIZE) {
+            throw new ZipException("Corrupt checksum trailer");
+        }
+        if (expectedSize != size || expectedBlocks != blocks) {
+            throw new ZipException("Size mismatch: expected " + expectedSize + " bytes, got " + size);
+        }
+        for (int i = 0; i < blocks; i++) {
+            if (buffer.getInt(4 * i) != checksums[i]) {
+                throw new ZipException("CRC mismatch in block " + i + " (bytes from " + (long) i * BLOCK_SIZE + ")");
+            }
+        }
+    }
+
+    // Original size recorded in a checked stream's trailer, or -1 if the file is not one
+    public static long originalSize(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + TRAILER_END_SIZE) {
+                return -1;
+            }
+            ByteBuffer header = read(channel, 0, 4);
+            ByteBuffer trailer = read(channel, fileSize - TRAILER_END_SIZE, TRAILER_END_SIZE);
+            if (header.getInt(0) != HEADER_MAGIC || trailer.getInt(12) != TRAILER_MAGIC) {
+                return -1;
+            }
+            return trailer.getLong(0);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private void endBlock() {
+        if (blocks == checksums.length) {
+            checksums = Arrays.copyOf(checksums, blocks * 2);
+        }
+        checksums[blocks++] = (int) crc.getValue();
+        crc.reset();
+        blockFill = 0;
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+// Per-block codec choice for the ADAPTIVE stream mode. A sampling pre-pass
+// estimates order-0 entropy and how much of the block repeats earlier bytes,
+// then picks the cheapest method that is not expected to give up ratio:
+// incompressible data (JPEG, gzip, encrypted) is stored as is, match-rich data
+// goes to high-level Deflate where lazy matching pays, and the rest to fast
+// Deflate unless a trial on a small slice shows LZ77+Huffman doing better.
+public class BlockCodec {
+
+    // The ordinal is written as the block header byte, so only append
+    public enum Method {
+        STORE, FAST_DEFLATE, LZ77_HUFFMAN, HIGH_DEFLATE
+    }
+
+    private static final Method[] METHODS = Method.values();
+
+    // Sample up to SAMPLE_CHUNKS evenly spaced chunks instead of the whole block
+    private static final int SAMPLE_CHUNKS = 16;
+    private static final int SAMPLE_CHUNK_SIZE = 4096;
+    private static final int MATCH_BYTES = 4;
+    private static final int HASH_BITS = 12;
+    // Estimated compressed/raw ratio above which compression is not worth the CPU
+    private static final double STORE_RATIO = 0.97;
+    // Fraction of sampled bytes inside long repeats above which high-level Deflate
+    // pays. Short repeats do not count: on small alphabets (DNA, packed integers)
+    // they are everywhere and make level 9 search its chains for little gain.
+    private static final int LONG_MATCH = 16;
+    private static final double MATCH_RICH = 0.5;
+    private static final int TRIAL_SIZE = 4096;
+
+    public static Method method(int id) throws ZipException {
+        if (id < 0 || id >= METHODS.length) {
+            throw new ZipException("Unknown block method " + id);
+        }
+        return METHODS[id];
+    }
+
+    public static Method choose(byte[] data, int offset, int length) throws ZipException {
+        if (length < SAMPLE_CHUNK_SIZE) {
+            return length == 0 ? Method.STORE : Method.FAST_DEFLATE;
+        }
+
+        int chunks = Math.min(SAMPLE_CHUNKS, length / SAMPLE_CHUNK_SIZE);
+        int stride = length / chunks;
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        int[] lastSeen = new int[1 << HASH_BITS];
+        long sampled = 0;
+        long matched = 0;
+        long longMatched = 0;
+        for (int c = 0; c < chunks; c++) {
+            int start = offset + c * stride;
+            Main.addFrequency(data, start, SAMPLE_CHUNK_SIZE, frequency);
+            // Greedy 4-byte matching against earlier positions of the same chunk
+            Arrays.fill(lastSeen, -1);
+            int end = start + SAMPLE_CHUNK_SIZE - MATCH_BYTES;
+            for (int i = start; i <= end; i++) {
+                int key = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | data[i + 3] << 24;
+                int h = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+                int candidate = lastSeen[h];
+                lastSeen[h] = i;
+                if (candidate >= 0 && data[candidate] == data[i] && data[candidate + 1] == data[i + 1]
+                        && data[candidate + 2] == data[i + 2] && data[candidate + 3] == data[i + 3]) {
+                    int run = MATCH_BYTES;
+                    while (i + run <= end && data[candidate + run] == data[i + run]) {
+                        run++;
+                    }
+                    matched += run;
+                    if (run >= LONG_MATCH) {
+                        longMatched += run;
+                    }
+                    i += run - 1;
+                }
+            }
+            sampled += SAMPLE_CHUNK_SIZE;
+        }
+
+        double matchDensity = (double) matched / sampled;
+        double entropy = entropy(frequency, sampled);
+        // Literals cost about their entropy; matched bytes are close to free
+        double estimatedRatio = (1 - matchDensity) * entropy / 8;
+        if (estimatedRatio >= STORE_RATIO) {
+            return Method.STORE;
+        }
+        if ((double) longMatched / sampled >= MATCH_RICH) {
+            return Method.HIGH_DEFLATE;
+        }
+        int trial = Math.min(TRIAL_SIZE, length);
+        byte[] slice = Arrays.copyOfRange(data, offset, offset + trial);
+        // A trial, not an operation, so it stays out of the COMPRESS statistics
+        byte[] huffman = Main.encodeBlock(slice, Main.DEFAULT_LEVEL);
+        if (huffman.length < ZlibCodec.compress(slice, Deflater.BEST_SPEED).length) {
+            return Method.LZ77_HUFFMAN;
+        }
+        return Method.FAST_DEFLATE;
+    }
+
+    // Level only applies to LZ77_HUFFMAN; the Deflate methods have fixed levels
+    public static byte[] encode(Method method, byte[] data, int offset, int length, int level) throws ZipException {
+        switch (method) {
+            case STORE:
+                return Arrays.copyOfRange(data, offset, offset + length);
+            case FAST_DEFLATE:
+                return compress(data, offset, length, Deflater.BEST_SPEED);
+            case HIGH_DEFLATE:
+                return compress(data, offset, length, Deflater.BEST_COMPRESSION);
+            case LZ77_HUFFMAN:
+                byte[] block = offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+                try {
+                    return Main.encodeBlock(block, level);
+                } catch (IllegalStateException e) {
+                    throw new ZipException(e.getMessage());
+                }
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    // Decodes payload[0, payloadLength) into a new array of exactly rawLength bytes
+    public static byte[] decode(Method method, byte[] payload, int payloadLength, int rawLength) throws ZipException {
+        byte[] output;
+        switch (method) {
+            case STORE:
+                if (payloadLength != rawLength) {
+                    throw new ZipException("Stored block length mismatch");
+                }
+                return Arrays.copyOf(payload, rawLength);
+            case FAST_DEFLATE:
+            case HIGH_DEFLATE:
+                output = new byte[rawLength];
+                if (ZlibCodec.decompress(payload, 0, payloadLength, output, 0) != rawLength) {
+                    throw new ZipException("Block shorter than its header");
+                }
+                return output;
+            case LZ77_HUFFMAN:
+                output = Main.decodeBlock(Arrays.copyOf(payload, payloadLength));
+                if (output.length != rawLength) {
+                    throw new ZipException("Block length mismatch: expected " + rawLength + ", got " + output.length);
+                }
+                return output;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    private static byte[] compress(byte[] data, int offset, int length, int level) throws ZipException {
+        byte[] output = new byte[ZlibCodec.maxCompressedLength(length)];
+        int count = ZlibCodec.compress(data, offset, length, output, 0, level);
+        return Arrays.copyOf(output, count);
+    }
+
+    // Order-0 entropy in bits per byte
+    private static double entropy(int[] frequency, long total) {
+        double bits = 0;
+        for (int count : frequency) {
+            if (count > 0) {
+                double p = (double) count / total;
+                bits -= p * Math.log(p);
+            }
+        }
+        return bits / Math.log(2);
+    }
+}
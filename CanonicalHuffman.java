@@ -0,0 +1,310 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Canonical Huffman codes over byte symbols. Code lengths live in an int[256]
+// and are limited to MAX_CODE_LENGTH bits so a code always fits a table probe.
+//
+// Decoding goes through a two-level table: a PRIMARY_BITS-wide primary table
+// resolves every code up to that length in one probe, and longer codes link
+// to a secondary table indexed by their remaining bits.
+//
+// Serialized header: a 32-byte bitmap of the symbols that occur, followed by
+// one 4-bit code length per present symbol in symbol order.
+public final class CanonicalHuffman {
+    public static final int SYMBOLS = 256;
+    public static final int MAX_CODE_LENGTH = 15;
+
+    private static final int BITMAP_SIZE = SYMBOLS / 8;
+    private static final int PRIMARY_BITS = 10;
+    // Table entries: symbol << 16 | code length, or offset << 16 | LINK | sub-table bits
+    private static final int LINK = 0x8000;
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private CanonicalHuffman() {
+    }
+
+    public static int[] codeLengths(int[] frequency) {
+        long[] weights = new long[SYMBOLS];
+        int used = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            weights[symbol] = frequency[symbol];
+            if (frequency[symbol] > 0) {
+                used++;
+            }
+        }
+
+        int[] lengths = new int[SYMBOLS];
+        if (used == 1) {
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                if (weights[symbol] > 0) {
+                    lengths[symbol] = 1;
+                }
+            }
+            return lengths;
+        }
+
+        // Flatten the distribution until the deepest code fits the limit
+        while (used > 1 && buildLengths(weights, used, lengths) > MAX_CODE_LENGTH) {
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                if (weights[symbol] > 0) {
+                    weights[symbol] = (weights[symbol] + 1) >>> 1;
+                }
+            }
+        }
+        return lengths;
+    }
+
+    // Two-queue Huffman construction over the sorted leaves; returns the max depth
+    private static int buildLengths(long[] weights, int used, int[] lengths) {
+        long[] leaves = new long[used];
+        int count = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (weights[symbol] > 0) {
+                leaves[count++] = (weights[symbol] << 8) | symbol;
+            }
+        }
+        Arrays.sort(leaves);
+
+        int nodes = 2 * used - 1;
+        long[] weight = new long[nodes];
+        int[] parent = new int[nodes];
+        for (int i = 0; i < used; i++) {
+            weight[i] = leaves[i] >>> 8;
+        }
+
+        int leafPos = 0;
+        int innerPos = used;
+        for (int next = used; next < nodes; next++) {
+            for (int pick = 0; pick < 2; pick++) {
+                int node;
+                if (innerPos >= next || (leafPos < used && weight[leafPos] <= weight[innerPos])) {
+                    node = leafPos++;
+                } else {
+                    node = innerPos++;
+                }
+                weight[next] += weight[node];
+                parent[node] = next;
+            }
+        }
+
+        int[] depth = new int[nodes];
+        int maxDepth = 0;
+        for (int node = nodes - 2; node >= 0; node--) {
+            depth[node] = depth[parent[node]] + 1;
+        }
+        Arrays.fill(lengths, 0);
+        for (int i = 0; i < used; i++) {
+            lengths[(int) (leaves[i] & 0xFF)] = depth[i];
+            maxDepth = Math.max(maxDepth, depth[i]);
+        }
+        return maxDepth;
+    }
+
+    // Codes are assigned in (length, symbol) order, as in Deflate
+    public static int[] canonicalCodes(int[] lengths) {
+        int[] lengthCount = new int[MAX_CODE_LENGTH + 1];
+        for (int length : lengths) {
+            lengthCount[length]++;
+        }
+        lengthCount[0] = 0;
+
+        int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCount[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+
+        int[] codes = new int[SYMBOLS];
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (lengths[symbol] != 0) {
+                codes[symbol] = nextCode[lengths[symbol]]++;
+            }
+        }
+        return codes;
+    }
+
+    public static long encodedBits(int[] frequency, int[] lengths) {
+        long bits = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            bits += (long) frequency[symbol] * lengths[symbol];
+        }
+        return bits;
+    }
+
+    public static int headerSize(int[] lengths) {
+        int present = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                present++;
+            }
+        }
+        return BITMAP_SIZE + (present + 1) / 2;
+    }
+
+    // Returns the offset just past the header
+    public static int writeHeader(int[] lengths, byte[] out, int offset) {
+        Arrays.fill(out, offset, offset + headerSize(lengths), (byte) 0);
+        int nibble = 2 * (offset + BITMAP_SIZE);
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (lengths[symbol] != 0) {
+                out[offset + (symbol >>> 3)] |= (byte) (0x80 >>> (symbol & 7));
+                out[nibble >>> 1] |= (byte) ((nibble & 1) == 0 ? lengths[symbol] << 4 : lengths[symbol]);
+                nibble++;
+            }
+        }
+        return (nibble + 1) >>> 1;
+    }
+
+    // Fills lengths from the header at offset and returns the offset just past it
+    public static int readHeader(byte[] in, int offset, int[] lengths) {
+        if (offset + BITMAP_SIZE > in.length) {
+            throw new IllegalArgumentException("Truncated Huffman header");
+        }
+        int nibble = 2 * (offset + BITMAP_SIZE);
+        long kraft = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if ((in[offset + (symbol >>> 3)] & (0x80 >>> (symbol & 7))) == 0) {
+                lengths[symbol] = 0;
+                continue;
+            }
+            if ((nibble >>> 1) >= in.length) {
+                throw new IllegalArgumentException("Truncated Huffman header");
+            }
+            int packed = in[nibble >>> 1];
+            int length = ((nibble & 1) == 0 ? packed >>> 4 : packed) & 0x0F;
+            if (length == 0) {
+                throw new IllegalArgumentException("Zero code length for present symbol " + symbol);
+            }
+            lengths[symbol] = length;
+            kraft += 1L << (MAX_CODE_LENGTH - length);
+            nibble++;
+        }
+        if (kraft > 1L << MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Oversubscribed Huffman code lengths");
+        }
+        return (nibble + 1) >>> 1;
+    }
+
+    // Encodes in[from, to) at out[offset] and returns the end offset
+    public static int encode(byte[] in, int from, int to, int[] codes, int[] lengths, byte[] out, int offset) {
+        BitWriter writer = new BitWriter(out, offset);
+        for (int i = from; i < to; i++) {
+            int symbol = in[i] & 0xFF;
+            writer.writeBits(codes[symbol], lengths[symbol]);
+        }
+        return writer.finish();
+    }
+
+    public static int[] decodeTable(int[] lengths) {
+        int[] codes = canonicalCodes(lengths);
+
+        // Size every secondary table by the longest code behind its prefix
+        int[] subBits = new int[1 << PRIMARY_BITS];
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int length = lengths[symbol];
+            if (length > PRIMARY_BITS) {
+                int prefix = codes[symbol] >>> (length - PRIMARY_BITS);
+                subBits[prefix] = Math.max(subBits[prefix], length - PRIMARY_BITS);
+            }
+        }
+        int size = 1 << PRIMARY_BITS;
+        int[] subOffset = new int[1 << PRIMARY_BITS];
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] != 0) {
+                subOffset[prefix] = size;
+                size += 1 << subBits[prefix];
+            }
+        }
+
+        int[] table = new int[size];
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] != 0) {
+                table[prefix] = (subOffset[prefix] << 16) | LINK | subBits[prefix];
+            }
+        }
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) {
+                continue;
+            }
+            int entry = (symbol << 16) | length;
+            if (length <= PRIMARY_BITS) {
+                int first = codes[symbol] << (PRIMARY_BITS - length);
+                Arrays.fill(table, first, first + (1 << (PRIMARY_BITS - length)), entry);
+            } else {
+                int prefix = codes[symbol] >>> (length - PRIMARY_BITS);
+                int bits = subBits[prefix];
+                int remaining = length - PRIMARY_BITS;
+                int suffix = codes[symbol] & ((1 << remaining) - 1);
+                int first = subOffset[prefix] + (suffix << (bits - remaining));
+                Arrays.fill(table, first, first + (1 << (bits - remaining)), entry);
+            }
+        }
+        return table;
+    }
+
+    // Decodes count symbols from in[offset, end) into out[outOffset]
+    public static void decode(byte[] in, int offset, int end, int[] table, byte[] out, int outOffset, int count) {
+        long bitBuffer = 0; // next bits are kept MSB-aligned
+        int bitCount = 0;
+        int position = offset;
+        int i = outOffset;
+        int outEnd = outOffset + count;
+
+        // Fast path: one branch-free refill to 56..63 bits covers three codes
+        while (outEnd - i >= 3 && end - position >= 8) {
+            bitBuffer |= (long) LONG_BE.get(in, position) >>> bitCount;
+            position += (63 - bitCount) >>> 3;
+            bitCount |= 56;
+
+            int entry = lookup(table, bitBuffer);
+            int length = entry & 0xFF;
+            bitBuffer <<= length;
+            out[i] = (byte) (entry >>> 16);
+            int entry2 = lookup(table, bitBuffer);
+            int length2 = entry2 & 0xFF;
+            bitBuffer <<= length2;
+            out[i + 1] = (byte) (entry2 >>> 16);
+            int entry3 = lookup(table, bitBuffer);
+            int length3 = entry3 & 0xFF;
+            bitBuffer <<= length3;
+            out[i + 2] = (byte) (entry3 >>> 16);
+
+            if (length == 0 || length2 == 0 || length3 == 0) {
+                throw new IllegalArgumentException("Invalid Huffman code near symbol " + (i - outOffset));
+            }
+            bitCount -= length + length2 + length3;
+            i += 3;
+        }
+
+        while (i < outEnd) {
+            while (bitCount <= 56 && position < end) {
+                bitBuffer |= (in[position++] & 0xFFL) << (56 - bitCount);
+                bitCount += 8;
+            }
+            int entry = lookup(table, bitBuffer);
+            int length = entry & 0xFF;
+            if (length == 0) {
+                throw new IllegalArgumentException("Invalid Huffman code at symbol " + (i - outOffset));
+            }
+            bitBuffer <<= length;
+            bitCount -= length;
+            if (bitCount < 0) {
+                throw new IllegalArgumentException("Truncated Huffman data");
+            }
+            out[i++] = (byte) (entry >>> 16);
+        }
+    }
+
+    private static int lookup(int[] table, long bitBuffer) {
+        int entry = table[(int) (bitBuffer >>> (64 - PRIMARY_BITS))];
+        if ((entry & LINK) != 0) {
+            int bits = entry & 0xFF;
+            entry = table[(entry >>> 16) + (int) ((bitBuffer << PRIMARY_BITS) >>> (64 - bits))];
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.zip.ZipException;
+
+// Deduplicating archive store. Input is cut into content-defined chunks with
+// FastCDC: a Gear rolling hash is tested against a stricter mask before the
+// average chunk size and a looser one after it, so chunk sizes cluster around
+// the average and an edit only moves the boundaries next to it. Chunks are named
+// by SHA-256 and kept zlib-compressed in a store directory, one file each, and
+// chunks the store already holds are neither compressed nor written again. A
+// recipe lists the chunks that rebuild the input.
+//
+// Recipe layout:
+//   header   "CZDR", version byte, store directory (modified UTF-8)
+//   chunks   per chunk: SHA-256 (32 bytes), length (int)
+//   trailer  original size (long), chunk count (int), "CZDE"
+public final class ChunkStore {
+    private static final int HEADER_MAGIC = 0x435A4452; // "CZDR"
+    private static final int TRAILER_MAGIC = 0x435A4445; // "CZDE"
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 16;
+    private static final int HASH_SIZE = 32;
+
+    static final int MIN_CHUNK = 2 * 1024;
+    static final int AVERAGE_CHUNK = 8 * 1024;
+    static final int MAX_CHUNK = 64 * 1024;
+    // FastCDC masks for 8 KiB chunks: 15 and 11 bits spread over the hash
+    private static final long MASK_SMALL = 0x0003590703530000L;
+    private static final long MASK_LARGE = 0x0000D90003530000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: the table decides the boundaries, so it must not change
+        SplittableRandom random = new SplittableRandom(0x435A4443L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public static final class Stats {
+        public final long chunks;
+        public final long newChunks;
+        public final long bytesIn;
+        public final long bytesStored;
+        public final long nanos;
+
+        Stats(long chunks, long newChunks, long bytesIn, long bytesStored, long nanos) {
+            this.chunks = chunks;
+            this.newChunks = newChunks;
+            this.bytesIn = bytesIn;
+            this.bytesStored = bytesStored;
+            this.nanos = nanos;
+        }
+
+        public double mbPerSecond() {
+            return bytesIn / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
+    }
+
+    private ChunkStore() {
+    }
+
+    public static boolean isRecipe(Path path) throws IOException {
+        return originalSize(path) >= 0;
+    }
+
+    // Size of the file a recipe rebuilds, or -1 if the file is not a recipe
+    public static long originalSize(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < 4 + TRAILER_SIZE) {
+                return -1;
+            }
+            ByteBuffer header = read(channel, 0, 4);
+            ByteBuffer trailer = read(channel, channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+            if (header.getInt(0) != HEADER_MAGIC || trailer.getInt(12) != TRAILER_MAGIC) {
+                return -1;
+            }
+            return trailer.getLong(0);
+        }
+    }
+
+    public static Stats store(Path source, Path recipe, Path store, int level) throws IOException {
+        long start = System.nanoTime();
+        MessageDigest sha256 = sha256();
+        Set<String> seen = new HashSet<>();
+        long chunks = 0;
+        long newChunks = 0;
+        long bytesIn = 0;
+        long bytesStored = 0;
+        Files.createDirectories(store);
+        try (InputStream in = Files.newInputStream(source);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(recipe)))) {
+            out.writeInt(HEADER_MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(store.toAbsolutePath().normalize().toString());
+
+            byte[] buffer = new byte[4 * MAX_CHUNK];
+            int position = 0;
+            int limit = 0;
+            boolean eof = false;
+            while (true) {
+                // Keep at least one maximal chunk buffered so the cut does not depend on reads
+                if (!eof && limit - position < MAX_CHUNK) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    position = 0;
+                    while (limit < buffer.length) {
+                        int read = in.read(buffer, limit, buffer.length - limit);
+                        if (read == -1) {
+                            eof = true;
+                            break;
+                        }
+                        limit += read;
+                    }
+                }
+                if (position == limit) {
+                    break;
+                }
+
+                int length = cut(buffer, position, limit);
+                sha256.update(buffer, position, length);
+                byte[] hash = sha256.digest();
+                String name = hex(hash);
+                if (seen.add(name)) {
+                    Path chunk = chunkPath(store, name);
+                    if (!Files.exists(chunk)) {
+                        byte[] compressed = ZlibCodec.compress(Arrays.copyOfRange(buffer, position, position + length), level);
+                        write(chunk, compressed);
+                        newChunks++;
+                        bytesStored += compressed.length;
+                    }
+                }
+                out.write(hash);
+                out.writeInt(length);
+                chunks++;
+                bytesIn += length;
+                position += length;
+            }
+
+            out.writeLong(bytesIn);
+            out.writeInt((int) chunks);
+            out.writeInt(TRAILER_MAGIC);
+        }
+        return new Stats(chunks, newChunks, bytesIn, bytesStored, System.nanoTime() - start);
+    }
+
+    // Writes the file a recipe describes to out, checking every chunk's SHA-256
+    public static Stats restore(Path recipe, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        MessageDigest sha256 = sha256();
+        try (FileChannel channel = FileChannel.open(recipe, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer trailer = read(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+            if (trailer.getInt(12) != TRAILER_MAGIC) {
+                throw new ZipException("Not a chunk recipe");
+            }
+            long size = trailer.getLong(0);
+            int count = trailer.getInt(8);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+            if (in.readInt() != HEADER_MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new ZipException("Not a chunk recipe");
+            }
+            Path store = Paths.get(in.readUTF());
+
+            byte[] hash = new byte[HASH_SIZE];
+            byte[] chunk = new byte[MAX_CHUNK];
+            long written = 0;
+            for (int i = 0; i < count; i++) {
+                in.readFully(hash);
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_CHUNK) {
+                    throw new ZipException("Corrupt chunk length in recipe");
+                }
+                String name = hex(hash);
+                Path path = chunkPath(store, name);
+                if (!Files.exists(path)) {
+                    throw new ZipException("Chunk " + name + " is missing from " + store);
+                }
+                byte[] compressed = Files.readAllBytes(path);
+                if (ZlibCodec.decompress(compressed, 0, compressed.length, chunk, 0) != length) {
+                    throw new ZipException("Chunk " + name + " has the wrong length");
+                }
+                sha256.update(chunk, 0, length);
+                if (!MessageDigest.isEqual(hash, sha256.digest())) {
+                    throw new ZipException("Chunk " + name + " is corrupt");
+                }
+                out.write(chunk, 0, length);
+                written += length;
+            }
+            if (written != size) {
+                throw new ZipException("Recipe size mismatch: expected " + size + ", got " + written);
+            }
+            return new Stats(count, 0, size, fileSize, System.nanoTime() - start);
+        }
+    }
+
+    // Length of the chunk starting at data[start], which ends before end
+    static int cut(byte[] data, int start, int end) {
+        int available = end - start;
+        if (available <= MIN_CHUNK) {
+            return available;
+        }
+        int limit = Math.min(available, MAX_CHUNK);
+        int normal = Math.min(AVERAGE_CHUNK, limit);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    // Two-level fan-out keeps directories small
+    private static Path chunkPath(Path store, String name) {
+        return store.resolve(name.substring(0, 2)).resolve(name.substring(2));
+    }
+
+    // Through a temporary file, so a crash never leaves a partial chunk under its name
+    private static void write(Path chunk, byte[] data) throws IOException {
+        Files.createDirectories(chunk.getParent());
+        Path temporary = Files.createTempFile(chunk.getParent(), "chunk", ".tmp");
+        try {
+            Files.write(temporary, data);
+            Files.move(temporary, chunk, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK has SHA-256
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of recipe");
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+// Streams data through Deflater or the LZ77+Huffman block codec without
+// holding the whole input in memory. DEFLATE and PARALLEL_DEFLATE output is a
+// plain zlib stream; LZ77_HUFFMAN output is a sequence of (raw length, payload
+// length, payload) frames, one per block. ADAPTIVE output starts with "CZAS"
+// and prefixes each frame with the BlockCodec method chosen for that block.
+// A checked stream wraps any of these in the BlockChecksums header and trailer.
+public class CompressingOutputStream extends OutputStream {
+
+    public enum Mode {
+        DEFLATE, PARALLEL_DEFLATE, LZ77_HUFFMAN, ADAPTIVE
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int BLOCK_SIZE = 256 * 1024;
+    static final int ADAPTIVE_MAGIC = 0x435A4153; // "CZAS"
+    // Ends the frames of a checked stream so the trailer can follow
+    static final int END_OF_FRAMES = -1;
+
+    private final MeteredOutputStream metered;
+    private final DataOutputStream out;
+    private final Mode mode;
+    private final int level;
+    private final Deflater deflater;
+    private final ParallelDeflater parallelDeflater;
+    private final byte[] buffer;
+    private final int[] methodCounts = new int[BlockCodec.Method.values().length];
+    private final BlockChecksums checksums;
+    private final StageEvent operation = Metrics.begin();
+    private long bytesIn;
+    private int blockLength;
+    private boolean headerWritten;
+    private boolean checkedHeaderWritten;
+    private boolean closed;
+
+    public CompressingOutputStream(OutputStream out) {
+        this(out, Mode.DEFLATE);
+    }
+
+    public CompressingOutputStream(OutputStream out, Mode mode) {
+        this(out, mode, Main.DEFAULT_LEVEL);
+    }
+
+    // Level 1-9 is the Deflater level in the Deflate modes and the LZ77 parsing
+    // level for LZ77+Huffman blocks; ADAPTIVE picks the Deflate level per block
+    public CompressingOutputStream(OutputStream out, Mode mode, int level) {
+        this(out, mode, level, null);
+    }
+
+    // A SharedDictionary primes the Deflater; only DEFLATE mode takes one
+    public CompressingOutputStream(OutputStream out, Mode mode, int level, byte[] dictionary) {
+        this(out, mode, level, dictionary, false);
+    }
+
+    // A checked stream records the size and a CRC-32C per block, see BlockChecksums
+    public CompressingOutputStream(OutputStream out, Mode mode, int level, byte[] dictionary, boolean checked) {
+        Main.checkLevel(level);
+        if (dictionary != null && mode != Mode.DEFLATE) {
+            throw new IllegalArgumentException("A dictionary needs DEFLATE mode, not " + mode);
+        }
+        this.level = level;
+        this.metered = new MeteredOutputStream(out);
+        this.out = new DataOutputStream(metered);
+        this.mode = mode;
+        this.deflater = mode == Mode.DEFLATE ? new Deflater(level) : null;
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        this.parallelDeflater = mode == Mode.PARALLEL_DEFLATE
+                ? new ParallelDeflater(this.out, level, ParallelDeflater.DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool())
+                : null;
+        this.checksums = checked ? new BlockChecksums() : null;
+        boolean blocks = mode == Mode.LZ77_HUFFMAN || mode == Mode.ADAPTIVE;
+        this.buffer = blocks ? new byte[BLOCK_SIZE] : new byte[BUFFER_SIZE];
+    }
+
+    // Number of blocks written with the given method in ADAPTIVE mode
+    public int blockCount(BlockCodec.Method method) {
+        return methodCounts[method.ordinal()];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        bytesIn += len;
+        if (checksums != null) {
+            writeCheckedHeader();
+            checksums.update(b, off, len);
+        }
+        if (mode == Mode.DEFLATE) {
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                drainDeflater();
+            }
+            return;
+        }
+        if (mode == Mode.PARALLEL_DEFLATE) {
+            parallelDeflater.write(b, off, len);
+            return;
+        }
+
+        while (len > 0) {
+            int count = Math.min(len, buffer.length - blockLength);
+            System.arraycopy(b, off, buffer, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == buffer.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    // Feeds a (possibly direct or mapped) buffer without an intermediate heap copy
+    // in DEFLATE mode; the other modes copy it into their block buffers
+    public void write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        bytesIn += src.remaining();
+        if (checksums != null) {
+            writeCheckedHeader();
+            checksums.update(src);
+        }
+        if (mode == Mode.DEFLATE) {
+            deflater.setInput(src);
+            while (!deflater.needsInput()) {
+                drainDeflater();
+            }
+            return;
+        }
+        if (mode == Mode.PARALLEL_DEFLATE) {
+            parallelDeflater.write(src);
+            return;
+        }
+
+        while (src.hasRemaining()) {
+            int count = Math.min(src.remaining(), buffer.length - blockLength);
+            src.get(buffer, blockLength, count);
+            blockLength += count;
+            if (blockLength == buffer.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (checksums != null) {
+                writeCheckedHeader();
+            }
+            if (mode == Mode.DEFLATE) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drainDeflater();
+                }
+            } else if (mode == Mode.PARALLEL_DEFLATE) {
+                parallelDeflater.finish();
+            } else if (blockLength > 0) {
+                writeBlock();
+            } else if (mode == Mode.ADAPTIVE) {
+                writeHeader();
+            }
+            if (checksums != null) {
+                if (mode == Mode.ADAPTIVE) {
+                    out.writeByte(END_OF_FRAMES);
+                } else if (mode == Mode.LZ77_HUFFMAN) {
+                    out.writeInt(END_OF_FRAMES);
+                }
+                checksums.finish();
+                checksums.writeTrailer(out);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            out.close();
+            Metrics.end(operation, Metrics.Stage.COMPRESS, bytesIn, metered.count);
+        }
+    }
+
+    private void drainDeflater() throws IOException {
+        StageEvent event = Metrics.begin();
+        long consumed = deflater.getBytesRead();
+        int count = deflater.deflate(buffer);
+        Metrics.end(event, Metrics.Stage.DEFLATE, deflater.getBytesRead() - consumed, count);
+        out.write(buffer, 0, count);
+    }
+
+    private void writeBlock() throws IOException {
+        if (mode == Mode.ADAPTIVE) {
+            writeHeader();
+            BlockCodec.Method method = BlockCodec.choose(buffer, 0, blockLength);
+            byte[] payload = BlockCodec.encode(method, buffer, 0, blockLength, level);
+            methodCounts[method.ordinal()]++;
+            out.writeByte(method.ordinal());
+            out.writeInt(blockLength);
+            out.writeInt(payload.length);
+            out.write(payload);
+            blockLength = 0;
+            return;
+        }
+        byte[] block = blockLength == buffer.length ? buffer : Arrays.copyOf(buffer, blockLength);
+        byte[] payload;
+        try {
+            payload = Main.encodeBlock(block, level);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        out.writeInt(blockLength);
+        out.writeInt(payload.length);
+        out.write(payload);
+        blockLength = 0;
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            out.writeInt(ADAPTIVE_MAGIC);
+            headerWritten = true;
+        }
+    }
+
+    private void writeCheckedHeader() throws IOException {
+        if (!checkedHeaderWritten) {
+            out.writeInt(BlockChecksums.HEADER_MAGIC);
+            out.writeByte(BlockChecksums.VERSION);
+            out.writeByte(mode.ordinal());
+            checkedHeaderWritten = true;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Counts compressed bytes and times handing them to the sink
+    private static class MeteredOutputStream extends FilterOutputStream {
+        long count;
+
+        MeteredOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            StageEvent event = Metrics.begin();
+            out.write(b, off, len);
+            Metrics.end(event, Metrics.Stage.WRITE, len, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class CompressionStats implements CompressionStatsMBean {
+    private static final String OBJECT_NAME = "comprizip:type=CompressionStats";
+    private static final int RATIO_BUCKETS = 11;
+    private static final Metrics.Stage[] STAGES = Metrics.Stage.values();
+
+    public static final CompressionStats INSTANCE = new CompressionStats();
+
+    private final LongAdder[] calls = adders(STAGES.length);
+    private final LongAdder[] bytesIn = adders(STAGES.length);
+    private final LongAdder[] bytesOut = adders(STAGES.length);
+    private final LongAdder[] nanos = adders(STAGES.length);
+    private final LongAdder[] errors = adders(STAGES.length);
+    private final LongAdder[] ratioHistogram = adders(RATIO_BUCKETS);
+
+    private CompressionStats() {
+    }
+
+    // Publishes the counters on the platform MBean server; safe to call twice
+    public static void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            // Monitoring is optional; compression works without it
+        }
+    }
+
+    void record(Metrics.Stage stage, long in, long out, long elapsedNanos) {
+        int i = stage.ordinal();
+        calls[i].increment();
+        bytesIn[i].add(in);
+        bytesOut[i].add(out);
+        nanos[i].add(elapsedNanos);
+        if (stage == Metrics.Stage.COMPRESS && in > 0) {
+            ratioHistogram[(int) Math.min(RATIO_BUCKETS - 1, out * 10 / in)].increment();
+        }
+    }
+
+    void error(Metrics.Stage stage) {
+        errors[stage.ordinal()].increment();
+    }
+
+    @Override
+    public long getCompressOperations() {
+        return calls[Metrics.Stage.COMPRESS.ordinal()].sum();
+    }
+
+    @Override
+    public long getDecompressOperations() {
+        return calls[Metrics.Stage.DECOMPRESS.ordinal()].sum();
+    }
+
+    @Override
+    public long getErrors() {
+        long total = 0;
+        for (LongAdder adder : errors) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn[Metrics.Stage.COMPRESS.ordinal()].sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut[Metrics.Stage.COMPRESS.ordinal()].sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long in = getBytesIn();
+        return in == 0 ? 0 : (double) getBytesOut() / in;
+    }
+
+    @Override
+    public double getCompressThroughputMBPerSecond() {
+        return throughput(Metrics.Stage.COMPRESS.ordinal(), bytesIn);
+    }
+
+    @Override
+    public double getDecompressThroughputMBPerSecond() {
+        return throughput(Metrics.Stage.DECOMPRESS.ordinal(), bytesOut);
+    }
+
+    @Override
+    public long[] getRatioHistogram() {
+        long[] histogram = new long[RATIO_BUCKETS];
+        for (int i = 0; i < RATIO_BUCKETS; i++) {
+            histogram[i] = ratioHistogram[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public String[] getStageSummary() {
+        String[] summary = new String[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            summary[i] = String.format("%s: %d calls, %d -> %d bytes, %.3f s, %.1f MB/s, %d errors",
+                    STAGES[i].name().toLowerCase(), calls[i].sum(), bytesIn[i].sum(), bytesOut[i].sum(),
+                    nanos[i].sum() / 1e9, throughput(i, bytesIn), errors[i].sum());
+        }
+        return summary;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][] { calls, bytesIn, bytesOut, nanos, errors, ratioHistogram }) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    // Uncompressed MB per second of time spent in the stage
+    private double throughput(int stage, LongAdder[] uncompressed) {
+        long time = nanos[stage].sum();
+        return time == 0 ? 0 : uncompressed[stage].sum() / (1024.0 * 1024.0) / (time / 1e9);
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
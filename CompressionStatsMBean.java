@@ -0,0 +1,30 @@
+// Cumulative counters published over JMX as comprizip:type=CompressionStats.
+// Totals, ratio and throughput cover whole compress/decompress operations;
+// the stage summary breaks the time down per stage.
+public interface CompressionStatsMBean {
+    long getCompressOperations();
+
+    long getDecompressOperations();
+
+    long getErrors();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    // Compressed size over uncompressed size, over all compress operations
+    double getCompressionRatio();
+
+    double getCompressThroughputMBPerSecond();
+
+    double getDecompressThroughputMBPerSecond();
+
+    // Compress operations by ratio: bucket i counts ratios in [i/10, (i+1)/10),
+    // the last bucket everything that grew
+    long[] getRatioHistogram();
+
+    // One line per stage: calls, bytes in and out, time, MB/s and errors
+    String[] getStageSummary();
+
+    void reset();
+}
@@ -1,9 +1,16 @@
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class Decomp {
     private static final int WINDOW_SIZE = 4096;
+    private static final int MIN_LENGTH = 3;
+    private static final int MAX_LENGTH = 0x0F + MIN_LENGTH;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
 
     public static void main(String[] args) {
         if (args.length != 2) {
@@ -13,85 +20,259 @@ public class Decomp {
         String input = args[0];
         String output = args[1];
 
-        try {
-            byte[] compData = readFile2BA(new File(input));
-            byte[] decData = lz77Decompression(compData);
-            writeBA2File(decData, new File(output));
+        try (InputStream inputStream = new FileInputStream(input);
+             OutputStream outputStream = new FileOutputStream(output)) {
+            lz77Decompression(inputStream, outputStream);
             System.out.println("Decompressed data written to " + output);
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
         }
     }
 
-public static byte[] lz77Decompression(byte[] data) throws IOException {
-    List<Byte> output = new ArrayList<>();
-    byte[] window = new byte[WINDOW_SIZE];
-    int windowPointer = 0;
-    boolean running = true;
-
-    try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data))) {
-        while (running) {
-            byte flag = inputStream.readByte();
+    // Stream layout: a flag byte per group of 8 items, LSB first. A set bit is a
+    // literal byte; a clear bit is a 2-byte reference with a 12-bit offset and a
+    // 4-bit length (+3). The window starts out as 4096 zero bytes and offset 0
+    // reaches back the full window. Decoding stops at the first item that the
+    // remaining input cannot hold.
+    public static byte[] lz77Decompression(byte[] data) throws IOException {
+        byte[] output = new byte[decompressedLength(data, 0, data.length)];
+        lz77Decompression(data, 0, data.length, output, 0);
+        return output;
+    }
 
+    // Exact decoded size, from the item headers alone
+    public static int decompressedLength(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int position = offset;
+        long total = 0;
+        while (position < end) {
+            int flag = data[position++];
             for (int i = 0; i < 8; i++) {
                 if ((flag & (1 << i)) == 0) {
-                    // Reference to previous occurrence in the window
-                    if (inputStream.available() < 2) {
-                        running = false;
-                        break;
+                    if (end - position < 2) {
+                        return (int) total;
+                    }
+                    total += (data[position + 1] & 0x0F) + MIN_LENGTH;
+                    position += 2;
+                } else {
+                    if (position == end) {
+                        return (int) total;
                     }
+                    total++;
+                    position++;
+                }
+            }
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Decompressed data exceeds 2 GiB");
+            }
+        }
+        return (int) total;
+    }
+
+    // Decodes data[offset, offset + length) into the caller's buffer at outOffset,
+    // using the output itself as the window, and returns the number of bytes written
+    public static int lz77Decompression(byte[] data, int offset, int length, byte[] output, int outOffset)
+            throws IOException {
+        return decode(data, offset, length, output, outOffset, output.length);
+    }
 
-                    int byte1 = inputStream.readUnsignedByte();
-                    int byte2 = inputStream.readUnsignedByte();
-                    int offset = (byte1 << 4) | (byte2 >> 4);
-                    int length = (byte2 & 0x0F) + 3;
+    private static int decode(byte[] data, int offset, int length, byte[] output, int outOffset, int outLimit)
+            throws IOException {
+        int end = offset + length;
+        int position = offset;
+        int op = outOffset;
 
-                    for (int j = 0; j < length; j++) {
-                        byte value = window[(windowPointer - offset + WINDOW_SIZE) % WINDOW_SIZE];
-                        output.add(value);
-                        window[windowPointer] = value;
-                        windowPointer = (windowPointer + 1) % WINDOW_SIZE;
+        while (position < end) {
+            int flag = data[position++];
+            for (int i = 0; i < 8; i++) {
+                if ((flag & (1 << i)) == 0) {
+                    if (end - position < 2) {
+                        return op - outOffset;
+                    }
+                    int byte1 = data[position] & 0xFF;
+                    int byte2 = data[position + 1] & 0xFF;
+                    position += 2;
+                    int distance = (byte1 << 4) | (byte2 >> 4);
+                    int count = (byte2 & 0x0F) + MIN_LENGTH;
+                    if (op + count > outLimit) {
+                        throw new IOException("Output buffer too small");
                     }
+                    op = copyMatch(output, outOffset, op, distance == 0 ? WINDOW_SIZE : distance, count);
                 } else {
-                    // Literal byte
-                    if (inputStream.available() < 1) {
-                        running = false;
-                        break;
+                    if (position == end) {
+                        return op - outOffset;
+                    }
+                    if (op == outLimit) {
+                        throw new IOException("Output buffer too small");
                     }
+                    output[op++] = data[position++];
+                }
+            }
+        }
+        return op - outOffset;
+    }
+
+    // Decodes in.remaining() bytes into out; works for heap and direct buffers
+    public static void lz77Decompression(ByteBuffer in, ByteBuffer out) throws IOException {
+        if (in.hasArray() && out.hasArray()) {
+            int outOffset = out.arrayOffset() + out.position();
+            int written = decode(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+                    out.array(), outOffset, out.arrayOffset() + out.limit());
+            in.position(in.limit());
+            out.position(out.position() + written);
+            return;
+        }
 
-                    byte literal = inputStream.readByte();
-                    output.add(literal);
-                    window[windowPointer] = literal;
-                    windowPointer = (windowPointer + 1) % WINDOW_SIZE;
+        int outStart = out.position();
+        int op = outStart;
+        int outLimit = out.limit();
+        while (in.hasRemaining()) {
+            int flag = in.get();
+            for (int i = 0; i < 8; i++) {
+                if ((flag & (1 << i)) == 0) {
+                    if (in.remaining() < 2) {
+                        in.position(in.limit());
+                        out.position(op);
+                        return;
+                    }
+                    int byte1 = in.get() & 0xFF;
+                    int byte2 = in.get() & 0xFF;
+                    int distance = (byte1 << 4) | (byte2 >> 4);
+                    int count = (byte2 & 0x0F) + MIN_LENGTH;
+                    if (op + count > outLimit) {
+                        throw new IOException("Output buffer too small");
+                    }
+                    op = copyMatch(out, outStart, op, distance == 0 ? WINDOW_SIZE : distance, count);
+                } else {
+                    if (!in.hasRemaining()) {
+                        out.position(op);
+                        return;
+                    }
+                    if (op == outLimit) {
+                        throw new IOException("Output buffer too small");
+                    }
+                    out.put(op++, in.get());
                 }
             }
         }
+        out.position(op);
     }
 
-    // Convert the List<Byte> to byte[]
-    byte[] outputArray = new byte[output.size()];
-    for (int i = 0; i < outputArray.length; i++) {
-        outputArray[i] = output.get(i);
+    // Streaming variant for inputs that do not fit in memory. Output goes through
+    // a buffer that keeps the last window in front of the bytes being decoded;
+    // returns the number of bytes written.
+    public static long lz77Decompression(InputStream in, OutputStream out) throws IOException {
+        byte[] input = new byte[STREAM_BUFFER_SIZE];
+        int inPosition = 0;
+        int inLimit = 0;
+        // The first WINDOW_SIZE bytes stand in for the zero-filled initial window
+        byte[] buffer = new byte[WINDOW_SIZE + STREAM_BUFFER_SIZE];
+        int op = WINDOW_SIZE;
+        long total = 0;
+
+        while (true) {
+            // Make sure a whole group (flag plus 8 references) is buffered when available
+            if (inLimit - inPosition < 17) {
+                System.arraycopy(input, inPosition, input, 0, inLimit - inPosition);
+                inLimit -= inPosition;
+                inPosition = 0;
+                int read;
+                while (inLimit < input.length && (read = in.read(input, inLimit, input.length - inLimit)) != -1) {
+                    inLimit += read;
+                }
+                if (inLimit == 0) {
+                    break;
+                }
+            }
+            if (buffer.length - op < 8 * MAX_LENGTH) {
+                out.write(buffer, WINDOW_SIZE, op - WINDOW_SIZE);
+                total += op - WINDOW_SIZE;
+                System.arraycopy(buffer, op - WINDOW_SIZE, buffer, 0, WINDOW_SIZE);
+                op = WINDOW_SIZE;
+            }
+
+            int flag = input[inPosition++];
+            boolean truncated = false;
+            for (int i = 0; i < 8 && !truncated; i++) {
+                if ((flag & (1 << i)) == 0) {
+                    if (inLimit - inPosition < 2) {
+                        truncated = true;
+                        break;
+                    }
+                    int byte1 = input[inPosition] & 0xFF;
+                    int byte2 = input[inPosition + 1] & 0xFF;
+                    inPosition += 2;
+                    int distance = (byte1 << 4) | (byte2 >> 4);
+                    op = copyMatch(buffer, 0, op, distance == 0 ? WINDOW_SIZE : distance, (byte2 & 0x0F) + MIN_LENGTH);
+                } else {
+                    if (inPosition == inLimit) {
+                        truncated = true;
+                        break;
+                    }
+                    buffer[op++] = input[inPosition++];
+                }
+            }
+            if (truncated) {
+                break;
+            }
+        }
+
+        out.write(buffer, WINDOW_SIZE, op - WINDOW_SIZE);
+        out.flush();
+        return total + op - WINDOW_SIZE;
     }
-    return outputArray;
-}
 
-private static byte[] readFile2BA(File file) throws IOException {
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-         BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
-        byte[] buffer = new byte[1024];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    // Copies count bytes from distance back and returns the new output position.
+    // Bytes before start belong to the zero-filled initial window.
+    private static int copyMatch(byte[] output, int start, int op, int distance, int count) {
+        int src = op - distance;
+        if (src < start) {
+            int zeros = Math.min(count, start - src);
+            Arrays.fill(output, op, op + zeros, (byte) 0);
+            op += zeros;
+            src += zeros;
+            count -= zeros;
+            if (count == 0) {
+                return op;
+            }
+        }
+        if (distance >= count) {
+            System.arraycopy(output, src, output, op, count);
+            return op + count;
+        }
+        if (distance >= 8) {
+            // Overlapping copy: each 8-byte read ends at or before the write position
+            while (count >= 8) {
+                LONG_LE.set(output, op, (long) LONG_LE.get(output, src));
+                op += 8;
+                src += 8;
+                count -= 8;
+            }
+        }
+        while (count-- > 0) {
+            output[op++] = output[src++];
         }
-        return outputStream.toByteArray();
+        return op;
     }
-}
 
-private static void writeBA2File(byte[] data, File file) throws IOException {
-    try (BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
-        outputStream.write(data);
-        outputStream.flush();
+    private static int copyMatch(ByteBuffer output, int start, int op, int distance, int count) {
+        int src = op - distance;
+        while (src < start && count > 0) {
+            output.put(op++, (byte) 0);
+            src++;
+            count--;
+        }
+        if (distance >= 8) {
+            while (count >= 8) {
+                output.putLong(op, output.getLong(src));
+                op += 8;
+                src += 8;
+                count -= 8;
+            }
+        }
+        while (count-- > 0) {
+            output.put(op++, output.get(src++));
+        }
+        return op;
     }
 }
-}
\ No newline at end of file
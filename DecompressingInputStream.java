@@ -0,0 +1,333 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Reads what CompressingOutputStream wrote, one buffer or block at a time.
+// A checked stream is recognised by its header, whatever mode was passed in,
+// and its checksums are verified as the data is read; a mismatch surfaces as a
+// ZipException when the end is reached.
+public class DecompressingInputStream extends InputStream {
+
+    private final MeteredInputStream metered;
+    private final PushbackInputStream pushback;
+    private final DataInputStream in;
+    private CompressingOutputStream.Mode mode;
+    private Inflater inflater;
+    private int inputLength;
+    private BlockChecksums checksums;
+    private boolean started;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private final StageEvent operation = Metrics.begin();
+    private long bytesOut;
+    private byte[] payload = new byte[0];
+    private boolean headerRead;
+    private boolean eof;
+    private boolean closed;
+
+    public DecompressingInputStream(InputStream in) {
+        this(in, CompressingOutputStream.Mode.DEFLATE);
+    }
+
+    public DecompressingInputStream(InputStream in, CompressingOutputStream.Mode mode) {
+        this.metered = new MeteredInputStream(in);
+        this.pushback = new PushbackInputStream(metered, BlockChecksums.HEADER_SIZE);
+        this.in = new DataInputStream(pushback);
+        configure(mode);
+    }
+
+    private void configure(CompressingOutputStream.Mode mode) {
+        this.mode = mode;
+        // Both Deflate modes write a single zlib stream
+        if (mode == CompressingOutputStream.Mode.LZ77_HUFFMAN || mode == CompressingOutputStream.Mode.ADAPTIVE) {
+            this.inflater = null;
+            this.buffer = new byte[0];
+        } else {
+            this.inflater = new Inflater();
+            this.buffer = new byte[CompressingOutputStream.BUFFER_SIZE];
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!started) {
+            start();
+        }
+        int count;
+        if (inflater != null) {
+            count = readInflated(b, off, len);
+        } else {
+            count = -1;
+            while (position == limit) {
+                if (eof || !readBlock()) {
+                    break;
+                }
+            }
+            if (position < limit) {
+                count = Math.min(len, limit - position);
+                System.arraycopy(buffer, position, b, off, count);
+                position += count;
+            }
+        }
+        if (count > 0) {
+            bytesOut += count;
+            if (checksums != null) {
+                checksums.update(b, off, count);
+            }
+        }
+        return count;
+    }
+
+    // Reads the checked stream header if there is one
+    private void start() throws IOException {
+        started = true;
+        byte[] header = new byte[BlockChecksums.HEADER_SIZE];
+        int count = 0;
+        while (count < 4) {
+            int read = pushback.read(header, count, 4 - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+        }
+        if (count < 4 || ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8
+                | (header[3] & 0xFF)) != BlockChecksums.HEADER_MAGIC) {
+            pushback.unread(header, 0, count);
+            return;
+        }
+        int version = in.readUnsignedByte();
+        if (version != BlockChecksums.VERSION) {
+            throw new ZipException("Unsupported checked stream version " + version);
+        }
+        CompressingOutputStream.Mode[] modes = CompressingOutputStream.Mode.values();
+        int id = in.readUnsignedByte();
+        if (id >= modes.length) {
+            throw new ZipException("Unknown stream mode " + id);
+        }
+        CompressingOutputStream.Mode inner = modes[id] == CompressingOutputStream.Mode.PARALLEL_DEFLATE
+                ? CompressingOutputStream.Mode.DEFLATE
+                : modes[id];
+        if (inner != mode) {
+            if (inflater != null) {
+                inflater.end();
+            }
+            configure(inner);
+        }
+        checksums = new BlockChecksums();
+    }
+
+    // Called at the end of a checked stream's body with the trailer bytes that
+    // were already read; the rest of the input is the remainder of the trailer
+    private void verify(byte[] head, int offset, int length) throws IOException {
+        byte[] rest = in.readAllBytes();
+        byte[] trailer = new byte[length + rest.length];
+        System.arraycopy(head, offset, trailer, 0, length);
+        System.arraycopy(rest, 0, trailer, length, rest.length);
+        checksums.finish();
+        BlockChecksums verified = checksums;
+        checksums = null;
+        verified.verify(trailer, trailer.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (inflater != null) {
+            inflater.end();
+        }
+        in.close();
+        Metrics.end(operation, Metrics.Stage.DECOMPRESS, metered.count, bytesOut);
+    }
+
+    private int readInflated(byte[] b, int off, int len) throws IOException {
+        try {
+            while (true) {
+                StageEvent event = Metrics.begin();
+                long consumed = inflater.getBytesRead();
+                int count = inflater.inflate(b, off, len);
+                Metrics.end(event, Metrics.Stage.INFLATE, inflater.getBytesRead() - consumed, count);
+                if (count > 0) {
+                    return count;
+                }
+                if (inflater.finished()) {
+                    if (checksums != null) {
+                        int remaining = inflater.getRemaining();
+                        verify(buffer, inputLength - remaining, remaining);
+                    }
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    inflater.setDictionary(SharedDictionary.required(inflater));
+                    continue;
+                }
+                if (inflater.needsInput()) {
+                    int read = in.read(buffer, 0, buffer.length);
+                    if (read == -1) {
+                        throw new EOFException("Unexpected end of compressed stream");
+                    }
+                    inflater.setInput(buffer, 0, read);
+                    inputLength = read;
+                }
+            }
+        } catch (DataFormatException e) {
+            Metrics.error(Metrics.Stage.INFLATE);
+            throw new ZipException(e.getMessage());
+        }
+    }
+
+    // Adaptive streams are recognised by their magic and checked streams name
+    // their mode in the header; anything else is read as zlib
+    public static CompressingOutputStream.Mode detectMode(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            int magic = in.readInt();
+            if (magic == BlockChecksums.HEADER_MAGIC) {
+                in.readUnsignedByte();
+                int id = in.readUnsignedByte();
+                return id == CompressingOutputStream.Mode.ADAPTIVE.ordinal() ? CompressingOutputStream.Mode.ADAPTIVE
+                        : id == CompressingOutputStream.Mode.LZ77_HUFFMAN.ordinal() ? CompressingOutputStream.Mode.LZ77_HUFFMAN
+                        : CompressingOutputStream.Mode.DEFLATE;
+            }
+            return magic == CompressingOutputStream.ADAPTIVE_MAGIC
+                    ? CompressingOutputStream.Mode.ADAPTIVE
+                    : CompressingOutputStream.Mode.DEFLATE;
+        } catch (EOFException e) {
+            return CompressingOutputStream.Mode.DEFLATE;
+        }
+    }
+
+    public static boolean isChecked(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == BlockChecksums.HEADER_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private boolean readBlock() throws IOException {
+        if (mode == CompressingOutputStream.Mode.ADAPTIVE) {
+            return readAdaptiveBlock();
+        }
+        int rawLength;
+        try {
+            rawLength = in.readInt();
+        } catch (EOFException e) {
+            if (checksums != null) {
+                throw new EOFException("Checked stream ends before its trailer");
+            }
+            eof = true;
+            return false;
+        }
+        if (checksums != null && rawLength == CompressingOutputStream.END_OF_FRAMES) {
+            eof = true;
+            verify(buffer, 0, 0);
+            return false;
+        }
+        int payloadLength = in.readInt();
+        if (rawLength < 0 || rawLength > CompressingOutputStream.BLOCK_SIZE || payloadLength < 0) {
+            throw new ZipException("Corrupt block header");
+        }
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        buffer = Main.decodeBlock(payload);
+        if (buffer.length != rawLength) {
+            throw new ZipException("Block length mismatch: expected " + rawLength + ", got " + buffer.length);
+        }
+        position = 0;
+        limit = rawLength;
+        return true;
+    }
+
+    private boolean readAdaptiveBlock() throws IOException {
+        if (!headerRead) {
+            if (in.readInt() != CompressingOutputStream.ADAPTIVE_MAGIC) {
+                throw new ZipException("Not an adaptive stream");
+            }
+            headerRead = true;
+        }
+        int id = in.read();
+        if (id == -1) {
+            if (checksums != null) {
+                throw new EOFException("Checked stream ends before its trailer");
+            }
+            eof = true;
+            return false;
+        }
+        if (checksums != null && id == (CompressingOutputStream.END_OF_FRAMES & 0xFF)) {
+            eof = true;
+            verify(buffer, 0, 0);
+            return false;
+        }
+        BlockCodec.Method method = BlockCodec.method(id);
+        int rawLength = in.readInt();
+        int payloadLength = in.readInt();
+        if (rawLength < 0 || rawLength > CompressingOutputStream.BLOCK_SIZE || payloadLength < 0) {
+            throw new ZipException("Corrupt block header");
+        }
+        if (payload.length < payloadLength) {
+            payload = new byte[payloadLength];
+        }
+        in.readFully(payload, 0, payloadLength);
+        buffer = BlockCodec.decode(method, payload, payloadLength, rawLength);
+        position = 0;
+        limit = rawLength;
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Counts compressed bytes and times reading them from the source
+    private static class MeteredInputStream extends FilterInputStream {
+        long count;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            StageEvent event = Metrics.begin();
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            Metrics.end(event, Metrics.Stage.READ, Math.max(read, 0), Math.max(read, 0));
+            return read;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Table-based asymmetric numeral system coder (tANS, as in FSE) over byte
+// symbols. Counts are normalized to a power-of-two table, and a symbol of
+// probability p costs -log2(p) bits including the fraction, where a Huffman
+// code rounds to whole bits and never spends less than one. The gain is
+// largest on skewed data.
+//
+// Four states take turns over the symbols, so the decoder has four
+// independent table lookups in flight per refill. Decoding has no
+// data-dependent branches: a step is a table load, a shift and an add.
+//
+// The encoder walks the symbols backwards and writes bits forwards, LSB first,
+// ending with the four final states and a 1 marker bit; the decoder reads from
+// the marker back towards the start.
+//
+// Serialized header: a 32-byte bitmap of the symbols that occur, followed by
+// one 2-byte normalized count per present symbol in symbol order. The counts
+// sum to the table size.
+public final class FiniteStateEntropy {
+    public static final int MIN_TABLE_LOG = 5;
+    // Four reads of at most this many bits fit one 57-bit refill
+    public static final int MAX_TABLE_LOG = 12;
+
+    private static final int SYMBOLS = CanonicalHuffman.SYMBOLS;
+    private static final int BITMAP_SIZE = SYMBOLS / 8;
+    private static final int STATES = 4;
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private FiniteStateEntropy() {
+    }
+
+    // Large enough for every present symbol, no larger than the data can fill
+    public static int chooseTableLog(int[] frequency, long total) {
+        int present = 0;
+        for (int count : frequency) {
+            if (count > 0) {
+                present++;
+            }
+        }
+        int log = 63 - Long.numberOfLeadingZeros(Math.max(1, total - 1)) - 1;
+        log = Math.max(log, 32 - Integer.numberOfLeadingZeros(present) + 1);
+        return Math.max(MIN_TABLE_LOG, Math.min(MAX_TABLE_LOG, log));
+    }
+
+    // Scales the counts to sum to 1 << tableLog, keeping every present symbol at
+    // least 1. Rounding error is settled one unit at a time where it costs least.
+    public static int[] normalize(int[] frequency, long total, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int[] normalized = new int[SYMBOLS];
+        int sum = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (frequency[symbol] > 0) {
+                normalized[symbol] = (int) Math.max(1, (frequency[symbol] * (long) tableSize + total / 2) / total);
+                sum += normalized[symbol];
+            }
+        }
+        while (sum != tableSize) {
+            int step = sum > tableSize ? -1 : 1;
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                int count = normalized[symbol];
+                if (count == 0 || count + step == 0) {
+                    continue;
+                }
+                // Bits added over the block by moving this symbol's probability
+                double cost = frequency[symbol] * Math.log((double) count / (count + step));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = symbol;
+                }
+            }
+            normalized[best] += step;
+            sum += step;
+        }
+        return normalized;
+    }
+
+    // Encoded size in bits, from the ideal cost of each symbol under the table
+    public static long encodedBits(int[] frequency, int[] normalized, int tableLog) {
+        double bits = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (frequency[symbol] > 0) {
+                bits += frequency[symbol] * (tableLog - Math.log(normalized[symbol]) / Math.log(2));
+            }
+        }
+        return (long) Math.ceil(bits) + STATES * tableLog + 1;
+    }
+
+    // Bound for encode's output, including the 8 bytes its word writes run over
+    public static int maxEncodedSize(int count, int tableLog) {
+        return (int) (((long) count * tableLog + STATES * tableLog + 8) >>> 3) + 8;
+    }
+
+    public static int headerSize(int[] normalized) {
+        int present = 0;
+        for (int count : normalized) {
+            if (count != 0) {
+                present++;
+            }
+        }
+        return BITMAP_SIZE + 2 * present;
+    }
+
+    // Returns the offset just past the header
+    public static int writeHeader(int[] normalized, byte[] out, int offset) {
+        Arrays.fill(out, offset, offset + BITMAP_SIZE, (byte) 0);
+        int position = offset + BITMAP_SIZE;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (normalized[symbol] != 0) {
+                out[offset + (symbol >>> 3)] |= (byte) (0x80 >>> (symbol & 7));
+                out[position++] = (byte) (normalized[symbol] >>> 8);
+                out[position++] = (byte) normalized[symbol];
+            }
+        }
+        return position;
+    }
+
+    // Fills normalized from the header at offset and returns the offset just past it
+    public static int readHeader(byte[] in, int offset, int[] normalized) {
+        if (offset + BITMAP_SIZE > in.length) {
+            throw new IllegalArgumentException("Truncated FSE header");
+        }
+        int position = offset + BITMAP_SIZE;
+        int sum = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if ((in[offset + (symbol >>> 3)] & (0x80 >>> (symbol & 7))) == 0) {
+                normalized[symbol] = 0;
+                continue;
+            }
+            if (position + 2 > in.length) {
+                throw new IllegalArgumentException("Truncated FSE header");
+            }
+            int count = ((in[position] & 0xFF) << 8) | (in[position + 1] & 0xFF);
+            if (count == 0 || count > 1 << MAX_TABLE_LOG) {
+                throw new IllegalArgumentException("Invalid FSE count " + count + " for symbol " + symbol);
+            }
+            normalized[symbol] = count;
+            sum += count;
+            position += 2;
+        }
+        if (Integer.bitCount(sum) != 1 || sum < 1 << MIN_TABLE_LOG || sum > 1 << MAX_TABLE_LOG) {
+            throw new IllegalArgumentException("FSE counts sum to " + sum + ", not a table size");
+        }
+        return position;
+    }
+
+    // Encodes in[from, to) at out[offset] and returns the end offset. out needs
+    // maxEncodedSize bytes from offset.
+    public static int encode(byte[] in, int from, int to, int[] normalized, byte[] out, int offset) {
+        int tableLog = tableLog(normalized);
+        int tableSize = 1 << tableLog;
+        int[] stateTable = new int[tableSize];
+        int[] deltaNbBits = new int[SYMBOLS];
+        int[] deltaFindState = new int[SYMBOLS];
+        buildEncodeTable(normalized, tableLog, stateTable, deltaNbBits, deltaFindState);
+
+        int[] states = { tableSize, tableSize, tableSize, tableSize };
+        long bits = 0;
+        int bitCount = 0;
+        int position = offset;
+
+        // The symbols after the last whole group of four go first, so the
+        // groups below line up with the decoder's
+        int i = to;
+        while (((i - from) & 3) != 0) {
+            i--;
+            int lane = (i - from) & 3;
+            int symbol = in[i] & 0xFF;
+            int state = states[lane];
+            int nbBits = (state + deltaNbBits[symbol]) >>> 16;
+            bits |= (long) (state & ((1 << nbBits) - 1)) << bitCount;
+            bitCount += nbBits;
+            states[lane] = stateTable[(state >>> nbBits) + deltaFindState[symbol]];
+        }
+        int s0 = states[0];
+        int s1 = states[1];
+        int s2 = states[2];
+        int s3 = states[3];
+        while (i > from) {
+            LONG_LE.set(out, position, bits);
+            position += bitCount >>> 3;
+            bits >>>= bitCount & ~7;
+            bitCount &= 7;
+
+            i -= 4;
+            int symbol = in[i + 3] & 0xFF;
+            int nbBits = (s3 + deltaNbBits[symbol]) >>> 16;
+            bits |= (long) (s3 & ((1 << nbBits) - 1)) << bitCount;
+            bitCount += nbBits;
+            s3 = stateTable[(s3 >>> nbBits) + deltaFindState[symbol]];
+            symbol = in[i + 2] & 0xFF;
+            nbBits = (s2 + deltaNbBits[symbol]) >>> 16;
+            bits |= (long) (s2 & ((1 << nbBits) - 1)) << bitCount;
+            bitCount += nbBits;
+            s2 = stateTable[(s2 >>> nbBits) + deltaFindState[symbol]];
+            symbol = in[i + 1] & 0xFF;
+            nbBits = (s1 + deltaNbBits[symbol]) >>> 16;
+            bits |= (long) (s1 & ((1 << nbBits) - 1)) << bitCount;
+            bitCount += nbBits;
+            s1 = stateTable[(s1 >>> nbBits) + deltaFindState[symbol]];
+            symbol = in[i] & 0xFF;
+            nbBits = (s0 + deltaNbBits[symbol]) >>> 16;
+            bits |= (long) (s0 & ((1 << nbBits) - 1)) << bitCount;
+            bitCount += nbBits;
+            s0 = stateTable[(s0 >>> nbBits) + deltaFindState[symbol]];
+        }
+        LONG_LE.set(out, position, bits);
+        position += bitCount >>> 3;
+        bits >>>= bitCount & ~7;
+        bitCount &= 7;
+
+        // Final states, the first read back, then the marker
+        bits |= (long) (s3 - tableSize) << bitCount;
+        bitCount += tableLog;
+        bits |= (long) (s2 - tableSize) << bitCount;
+        bitCount += tableLog;
+        bits |= (long) (s1 - tableSize) << bitCount;
+        bitCount += tableLog;
+        bits |= (long) (s0 - tableSize) << bitCount;
+        bitCount += tableLog;
+        bits |= 1L << bitCount;
+        bitCount++;
+        LONG_LE.set(out, position, bits);
+        return position + ((bitCount + 7) >>> 3);
+    }
+
+    // Entries: next state base << 16 | bits to read << 8 | symbol
+    public static int[] decodeTable(int[] normalized) {
+        int tableLog = tableLog(normalized);
+        int tableSize = 1 << tableLog;
+        byte[] spread = spread(normalized, tableLog);
+        int[] next = Arrays.copyOf(normalized, SYMBOLS);
+        int[] table = new int[tableSize];
+        for (int state = 0; state < tableSize; state++) {
+            int symbol = spread[state] & 0xFF;
+            int x = next[symbol]++;
+            int nbBits = tableLog - (31 - Integer.numberOfLeadingZeros(x));
+            table[state] = (((x << nbBits) - tableSize) << 16) | (nbBits << 8) | symbol;
+        }
+        return table;
+    }
+
+    // The symbol that fills the whole table, or -1 if there are several. A lone
+    // symbol costs no bits and leaves every state where it is, so its stream
+    // holds only the final states and the marker.
+    public static int singleSymbol(int[] normalized) {
+        int tableSize = 1 << tableLog(normalized);
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (normalized[symbol] != 0) {
+                return normalized[symbol] == tableSize ? symbol : -1;
+            }
+        }
+        return -1;
+    }
+
+    // Decodes count symbols from in[offset, end), which must be exactly one
+    // encoded stream, into out[outOffset]
+    public static void decode(byte[] in, int offset, int end, int[] table, byte[] out, int outOffset, int count) {
+        if (end <= offset || in[end - 1] == 0) {
+            throw new IllegalArgumentException("Missing FSE end marker");
+        }
+        int tableLog = Integer.numberOfTrailingZeros(table.length);
+        // Reads take bits from the top of a little-endian word loaded at ptr
+        int ptr = end - 8;
+        long container = load(in, offset, ptr);
+        int consumed = Integer.numberOfLeadingZeros(in[end - 1] & 0xFF) - 24 + 1;
+
+        long window = container << consumed;
+        int s0 = (int) (window >>> (64 - tableLog));
+        window <<= tableLog;
+        int s1 = (int) (window >>> (64 - tableLog));
+        window <<= tableLog;
+        int s2 = (int) (window >>> (64 - tableLog));
+        window <<= tableLog;
+        int s3 = (int) (window >>> (64 - tableLog));
+        consumed += 4 * tableLog;
+
+        int i = outOffset;
+        int outEnd = outOffset + count;
+        while (outEnd - i >= 4) {
+            ptr -= consumed >>> 3;
+            consumed &= 7;
+            container = ptr >= offset ? (long) LONG_LE.get(in, ptr) : load(in, offset, ptr);
+
+            int e0 = table[s0];
+            int e1 = table[s1];
+            int e2 = table[s2];
+            int e3 = table[s3];
+            INT_LE.set(out, i, (e0 & 0xFF) | (e1 & 0xFF) << 8 | (e2 & 0xFF) << 16 | e3 << 24);
+            // Each lane shifts the word by its own bit offset, so the four reads
+            // do not wait on each other. (x >>> 1) >>> (63 - n) is the top n bits
+            // of x, and 0 when n is 0.
+            int n0 = (e0 >>> 8) & 0xFF;
+            int n1 = (e1 >>> 8) & 0xFF;
+            int n2 = (e2 >>> 8) & 0xFF;
+            int n3 = (e3 >>> 8) & 0xFF;
+            int c1 = consumed + n0;
+            int c2 = c1 + n1;
+            int c3 = c2 + n2;
+            s0 = (e0 >>> 16) + (int) ((container << consumed >>> 1) >>> (63 - n0));
+            s1 = (e1 >>> 16) + (int) ((container << c1 >>> 1) >>> (63 - n1));
+            s2 = (e2 >>> 16) + (int) ((container << c2 >>> 1) >>> (63 - n2));
+            s3 = (e3 >>> 16) + (int) ((container << c3 >>> 1) >>> (63 - n3));
+            consumed = c3 + n3;
+            i += 4;
+        }
+
+        int[] states = { s0, s1, s2, s3 };
+        for (int lane = 0; i < outEnd; lane++, i++) {
+            ptr -= consumed >>> 3;
+            consumed &= 7;
+            window = load(in, offset, ptr) << consumed;
+            int entry = table[states[lane]];
+            out[i] = (byte) entry;
+            int nbBits = (entry >>> 8) & 0xFF;
+            states[lane] = (entry >>> 16) + (int) ((window >>> 1) >>> (63 - nbBits));
+            consumed += nbBits;
+        }
+
+        // Every lane returns to the encoder's initial state with all bits read
+        long remaining = 8L * (ptr - offset) + 64 - consumed;
+        if (remaining != 0 || (states[0] | states[1] | states[2] | states[3]) != 0) {
+            throw new IllegalArgumentException("Corrupt FSE stream");
+        }
+    }
+
+    static int tableLog(int[] normalized) {
+        int sum = 0;
+        for (int count : normalized) {
+            sum += count;
+        }
+        return Integer.numberOfTrailingZeros(sum);
+    }
+
+    // Scatters each symbol's slots over the table with an odd step, which visits every slot once
+    private static byte[] spread(int[] normalized, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int mask = tableSize - 1;
+        int step = (tableSize >>> 1) + (tableSize >>> 3) + 3;
+        byte[] spread = new byte[tableSize];
+        int position = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            for (int i = 0; i < normalized[symbol]; i++) {
+                spread[position] = (byte) symbol;
+                position = (position + step) & mask;
+            }
+        }
+        return spread;
+    }
+
+    private static void buildEncodeTable(int[] normalized, int tableLog, int[] stateTable,
+            int[] deltaNbBits, int[] deltaFindState) {
+        int tableSize = 1 << tableLog;
+        byte[] spread = spread(normalized, tableLog);
+        int[] cumulative = new int[SYMBOLS];
+        int total = 0;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int count = normalized[symbol];
+            cumulative[symbol] = total;
+            if (count == 1) {
+                deltaNbBits[symbol] = (tableLog << 16) - tableSize;
+                deltaFindState[symbol] = total - 1;
+            } else if (count > 1) {
+                int maxBitsOut = tableLog - (31 - Integer.numberOfLeadingZeros(count - 1));
+                deltaNbBits[symbol] = (maxBitsOut << 16) - (count << maxBitsOut);
+                deltaFindState[symbol] = total - count;
+            }
+            total += count;
+        }
+        for (int state = 0; state < tableSize; state++) {
+            stateTable[cumulative[spread[state] & 0xFF]++] = tableSize + state;
+        }
+    }
+
+    // Little-endian word at in[ptr], with the bytes before start read as zero
+    private static long load(byte[] in, int start, int ptr) {
+        if (ptr >= start) {
+            return (long) LONG_LE.get(in, ptr);
+        }
+        long value = 0;
+        for (int k = Math.max(0, start - ptr); k < 8; k++) {
+            value |= (in[ptr + k] & 0xFFL) << (8 * k);
+        }
+        return value;
+    }
+}
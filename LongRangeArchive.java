@@ -0,0 +1,338 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipException;
+
+// Long-range archive for inputs whose repeats lie far beyond the 32 KiB LZ77
+// and Deflate windows, such as database dumps and disk images. The whole input
+// is mapped and a rolling hash of every 64-byte window is sampled into an
+// off-heap table, keyed by content so repeated data samples the same
+// positions. A hit is extended both ways into a long match of up to the
+// window size back (128 MiB to 2 GiB); everything between long matches goes
+// through Deflate, which still finds the short-range repeats.
+//
+// Layout:
+//   header   "CZLR", version byte, window log byte, original size (long)
+//   body     zlib stream of records: literal count (varint), literals,
+//            match length (varint), distance (varint, if the length is not 0);
+//            a record with match length 0 ends the data, followed by the
+//            CRC-32C of the original (int)
+//
+// Decoding maps the output file, so a match can reach anywhere behind it
+// without holding the window on the heap. The mapping grows as records decode
+// rather than trusting the header's size.
+public final class LongRangeArchive {
+    private static final int MAGIC = 0x435A4C52; // "CZLR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 14;
+    // First mapping of the output when decoding
+    private static final long INITIAL_CAPACITY = 64L * 1024 * 1024;
+
+    static final int MIN_WINDOW_LOG = 27;
+    static final int MAX_WINDOW_LOG = 31;
+    // Also the rolling hash window: with 64-bit words a byte leaving it is rotated back into place
+    static final int MIN_MATCH = 64;
+    // One position in 32 is sampled, and the table has a slot per 64 bytes of window
+    private static final long SAMPLE_MASK = 31;
+    private static final int SLOT_SHIFT = 6;
+    private static final int MIN_TABLE_BITS = 10;
+    // Table entry: position + 1 in the upper 40 bits, hash check in the lower 24
+    private static final int CHECK_BITS = 24;
+    private static final long CHECK_MASK = (1L << CHECK_BITS) - 1;
+    private static final long[] TABLE = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x435A4C52L);
+        for (int i = 0; i < TABLE.length; i++) {
+            TABLE[i] = random.nextLong();
+        }
+    }
+
+    public static final class Stats {
+        public final long matches;
+        public final long matchedBytes;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long nanos;
+
+        Stats(long matches, long matchedBytes, long bytesIn, long bytesOut, long nanos) {
+            this.matches = matches;
+            this.matchedBytes = matchedBytes;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.nanos = nanos;
+        }
+
+        public double mbPerSecond() {
+            return bytesIn / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
+    }
+
+    private LongRangeArchive() {
+    }
+
+    public static boolean isLongRangeArchive(Path path) throws IOException {
+        return originalSize(path) >= 0;
+    }
+
+    // Size recorded in the header, or -1 if the file is not a long-range archive
+    public static long originalSize(Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return -1;
+            }
+            in.readUnsignedByte();
+            return in.readLong();
+        }
+    }
+
+    // Window covering the whole input, within MIN_WINDOW_LOG and MAX_WINDOW_LOG
+    static int windowLog(long size) {
+        int log = 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1));
+        return Math.max(MIN_WINDOW_LOG, Math.min(MAX_WINDOW_LOG, log));
+    }
+
+    public static Stats compress(Path source, Path archive, int level) throws IOException {
+        long start = System.nanoTime();
+        CompressingOutputStream.Mode mode = Runtime.getRuntime().availableProcessors() > 1
+                ? CompressingOutputStream.Mode.PARALLEL_DEFLATE
+                : CompressingOutputStream.Mode.DEFLATE;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int windowLog = windowLog(size);
+            MappedFiles.Region input = new MappedFiles.Region(channel, FileChannel.MapMode.READ_ONLY, size);
+
+            OutputStream file = AsyncFiles.newOutputStream(archive);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).put((byte) windowLog).putLong(size);
+            file.write(header.array());
+            RecordWriter records;
+            try (CompressingOutputStream out = new CompressingOutputStream(file, mode, level)) {
+                records = new RecordWriter(out, input);
+                parse(input, 1L << windowLog, records);
+                CRC32C crc = new CRC32C();
+                for (long position = 0; position < size; ) {
+                    ByteBuffer slice = input.slice(position, size - position);
+                    position += slice.remaining();
+                    crc.update(slice);
+                }
+                records.writeInt((int) crc.getValue());
+            }
+            return new Stats(records.matches, records.matchedBytes, size, Files.size(archive), System.nanoTime() - start);
+        }
+    }
+
+    private static void parse(MappedFiles.Region input, long windowSize, RecordWriter records) throws IOException {
+        long size = input.size();
+        int tableBits = Math.max(MIN_TABLE_BITS, 63 - Long.numberOfLeadingZeros(Math.min(windowSize, size)) - SLOT_SHIFT);
+        // Off-heap, so a table of up to 256 MiB neither fills the heap nor slows the collector
+        LongBuffer table = ByteBuffer.allocateDirect(8 << tableBits).order(ByteOrder.nativeOrder()).asLongBuffer();
+
+        long anchor = 0;
+        long hash = 0;
+        int filled = 0;
+        for (long position = 0; position < size; position++) {
+            hash = Long.rotateLeft(hash, 1) ^ TABLE[input.get(position) & 0xFF];
+            if (filled == MIN_MATCH) {
+                hash ^= TABLE[input.get(position - MIN_MATCH) & 0xFF];
+            } else if (++filled < MIN_MATCH) {
+                continue;
+            }
+            if ((hash & SAMPLE_MASK) != 0) {
+                continue;
+            }
+
+            long windowStart = position + 1 - MIN_MATCH;
+            int slot = (int) (hash >>> (64 - tableBits));
+            long check = (hash >>> 5) & CHECK_MASK;
+            long entry = table.get(slot);
+            table.put(slot, ((windowStart + 1) << CHECK_BITS) | check);
+            if (entry == 0 || (entry & CHECK_MASK) != check) {
+                continue;
+            }
+            long candidate = (entry >>> CHECK_BITS) - 1;
+            long distance = windowStart - candidate;
+            if (distance <= 0 || distance > windowSize) {
+                continue;
+            }
+            long length = input.matchLength(candidate, windowStart, size - windowStart);
+            if (length < MIN_MATCH) {
+                continue; // hash collision
+            }
+            // Extend back over the literals not yet written
+            long matchStart = windowStart;
+            while (matchStart > anchor && candidate > 0 && input.get(matchStart - 1) == input.get(candidate - 1)) {
+                matchStart--;
+                candidate--;
+            }
+            length += windowStart - matchStart;
+            records.write(anchor, matchStart - anchor, length, distance);
+            anchor = matchStart + length;
+            // Restart the rolling hash after the match
+            position = anchor - 1;
+            hash = 0;
+            filled = 0;
+        }
+        records.write(anchor, size - anchor, 0, 0);
+    }
+
+    // A failed restore deletes the partial target
+    public static Stats decompress(Path archive, Path target) throws IOException {
+        try {
+            return restore(archive, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private static Stats restore(Path archive, Path target) throws IOException {
+        long start = System.nanoTime();
+        try (DataInputStream file = new DataInputStream(AsyncFiles.newInputStream(archive))) {
+            if (file.readInt() != MAGIC || file.readUnsignedByte() != VERSION) {
+                throw new ZipException("Not a long-range archive");
+            }
+            file.readUnsignedByte();
+            long size = file.readLong();
+            if (size < 0) {
+                throw new ZipException("Corrupt long-range archive size");
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new DecompressingInputStream(file, CompressingOutputStream.Mode.DEFLATE), 64 * 1024));
+            long matches = 0;
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // The header size is not trusted up front: the mapping grows as records decode
+                MappedFiles.Region output = new MappedFiles.Region(channel, FileChannel.MapMode.READ_WRITE, 0);
+                byte[] buffer = new byte[64 * 1024];
+                long position = 0;
+                while (true) {
+                    long literals = readVarLong(in);
+                    if (literals > size - position) {
+                        throw new ZipException("Literals run past the end at " + position);
+                    }
+                    while (literals > 0) {
+                        int count = (int) Math.min(literals, buffer.length);
+                        in.readFully(buffer, 0, count);
+                        output = grow(channel, output, position + count, size);
+                        output.put(position, buffer, 0, count);
+                        position += count;
+                        literals -= count;
+                    }
+                    long length = readVarLong(in);
+                    if (length == 0) {
+                        break;
+                    }
+                    long distance = readVarLong(in);
+                    if (distance <= 0 || distance > position || length > size - position) {
+                        throw new ZipException("Invalid long-range match at " + position);
+                    }
+                    output = grow(channel, output, position + length, size);
+                    output.copy(position - distance, position, length);
+                    position += length;
+                    matches++;
+                }
+                if (position != size) {
+                    throw new ZipException("Size mismatch: expected " + size + " bytes, got " + position);
+                }
+                CRC32C crc = new CRC32C();
+                for (position = 0; position < size; ) {
+                    ByteBuffer slice = output.slice(position, size - position);
+                    position += slice.remaining();
+                    crc.update(slice);
+                }
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new ZipException("CRC mismatch in long-range archive");
+                }
+                if (in.read() != -1) {
+                    throw new ZipException("Trailing data in long-range archive");
+                }
+                return new Stats(matches, 0, size, Files.size(archive), System.nanoTime() - start);
+            }
+        }
+    }
+
+    // Remaps the output to hold at least needed bytes, doubling up to size
+    private static MappedFiles.Region grow(FileChannel channel, MappedFiles.Region output, long needed, long size)
+            throws IOException {
+        if (needed <= output.size()) {
+            return output;
+        }
+        long capacity = Math.min(size, Math.max(needed, Math.max(2 * output.size(), INITIAL_CAPACITY)));
+        return new MappedFiles.Region(channel, FileChannel.MapMode.READ_WRITE, capacity);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of long-range archive");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ZipException("Corrupt varint in long-range archive");
+    }
+
+    private static final class RecordWriter {
+        private final CompressingOutputStream out;
+        private final MappedFiles.Region input;
+        private final byte[] scratch = new byte[30];
+        long matches;
+        long matchedBytes;
+
+        RecordWriter(CompressingOutputStream out, MappedFiles.Region input) {
+            this.out = out;
+            this.input = input;
+        }
+
+        // Literals input[from, from + count), then a match, or the end if length is 0
+        void write(long from, long count, long length, long distance) throws IOException {
+            out.write(scratch, 0, putVarLong(count, 0));
+            while (count > 0) {
+                ByteBuffer literals = input.slice(from, count);
+                from += literals.remaining();
+                count -= literals.remaining();
+                out.write(literals);
+            }
+            int end = putVarLong(length, 0);
+            if (length > 0) {
+                end = putVarLong(distance, end);
+                matches++;
+                matchedBytes += length;
+            }
+            out.write(scratch, 0, end);
+        }
+
+        void writeInt(int value) throws IOException {
+            out.write(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+        }
+
+        private int putVarLong(long value, int offset) {
+            while ((value & ~0x7FL) != 0) {
+                scratch[offset++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            scratch[offset++] = (byte) value;
+            return offset;
+        }
+    }
+}
@@ -1,54 +1,57 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipException;
 
 public class Main {
 
     // LZ77 Constants
-    private static final int WINDOW_SIZE = 15;
-    private static final int LOOK_AHEAD_BUFFER_SIZE = 7;
-
-    // Huffman Node
-    static class HuffmanNode implements Comparable<HuffmanNode> {
-        int frequency;
-        char character;
-        HuffmanNode left, right;
-
-        public HuffmanNode(char character, int frequency) {
-            this.character = character;
-            this.frequency = frequency;
-        }
-
-        @Override
-        public int compareTo(HuffmanNode node) {
-            return this.frequency - node.frequency;
-        }
+    static final int WINDOW_SIZE = 32 * 1024;
+    static final int MAX_MATCH_LENGTH = 258;
+    static final int MAX_CHAIN_DEPTH = 1024;
+
+    // Compression levels: 1-3 parse greedily, 4-7 lazily (checking the next
+    // position before committing to a match), 8-9 optimally. The tables give
+    // the hash chain depth, the match length that is taken without a lazy
+    // check, and the number of re-pricing passes of the optimal parser.
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+    public static final int DEFAULT_LEVEL = 6;
+    private static final int[] LEVEL_CHAIN_DEPTH = { 0, 1, 4, 16, 16, 32, 128, 256, 256, MAX_CHAIN_DEPTH };
+    private static final int[] LEVEL_NICE_LENGTH = { 0, 0, 0, 0, 16, 32, 128, MAX_MATCH_LENGTH, 0, 0 };
+    private static final int[] LEVEL_REFINEMENTS = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 2 };
+    // Token layout: 3-byte offset, 2-byte length, 1 next character
+    private static final int TOKEN_SIZE = TokenBuffer.TOKEN_SIZE;
+    // Shorter ranges are not worth the sub-histograms' allocation and merge
+    private static final int STRIPED_COUNT_MIN = 4096;
+    // Set in a block's symbol count when the block is FSE rather than Huffman coded
+    private static final int FSE_BLOCK = 0x80000000;
+    // Also set when the FSE block codes each token field as its own stream
+    private static final int FIELDS_BLOCK = 0x40000000;
+
+    // Entropy coder for token blocks; AUTO takes whichever codes each block smaller.
+    // -Dcomprizip.entropy=huffman|fse forces one.
+    enum EntropyCoder {
+        AUTO, HUFFMAN, FSE
     }
 
-    // LZ77 Token
-    public static class LZ77Token {
-        private int offset;
-        private int length;
-        private char nextCharacter;
+    static final EntropyCoder ENTROPY_CODER = entropyCoder(System.getProperty("comprizip.entropy"));
 
-        public LZ77Token(int offset, int length, char nextCharacter) {
-            this.offset = offset;
-            this.length = length;
-            this.nextCharacter = nextCharacter;
+    public static void main(String[] args) {
+        CompressionStats.register();
+        if (args.length > 0 && args[0].equals("batch")) {
+            System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
         }
-    }
-
-    private static HuffmanNode huffmanRoot;
 
-    public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
         String command;
 
         do {
-            System.out.println("Enter command (comp, decomp, size, equal, about, exit): ");
+            System.out.println("Enter command (comp, decomp, list, size, equal, verify, train, about, exit): ");
             command = scanner.nextLine().trim();
 
             switch (command) {
@@ -58,12 +61,21 @@ public class Main {
                 case "decomp":
                     decompCommand(scanner);
                     break;
+                case "list":
+                    listCommand(scanner);
+                    break;
                 case "size":
                     sizeCommand(scanner);
                     break;
                 case "equal":
                     equalCommand(scanner);
                     break;
+                case "verify":
+                    verifyCommand(scanner);
+                    break;
+                case "train":
+                    trainCommand(scanner);
+                    break;
                 case "about":
                     aboutCommand();
                     break;
@@ -84,25 +96,124 @@ public class Main {
     
         System.out.println("Enter archive name:");
         String archiveName = scanner.nextLine().trim();
-    
+
+        if (Files.isDirectory(Paths.get(sourceFileName))) {
+            packDirectory(sourceFileName, archiveName);
+            return;
+        }
+
+        System.out.println("Enter archive format (stream, adaptive, seekable, dictionary, dedup, long) [stream]:");
+        String format = scanner.nextLine().trim();
+
+        byte[] dictionary = null;
+        if (format.equals("dictionary")) {
+            System.out.println("Enter dictionary file:");
+            try {
+                dictionary = SharedDictionary.load(Paths.get(scanner.nextLine().trim()));
+            } catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+                return;
+            }
+        }
+        String storeName = null;
+        if (format.equals("dedup")) {
+            System.out.println("Enter chunk store directory:");
+            storeName = scanner.nextLine().trim();
+        }
+
+        int level = DEFAULT_LEVEL;
+        if (!format.equals("adaptive")) {
+            System.out.println("Enter compression level " + MIN_LEVEL + "-" + MAX_LEVEL + " (1 fastest, 9 smallest) [" + DEFAULT_LEVEL + "]:");
+            String levelText = scanner.nextLine().trim();
+            try {
+                level = levelText.isEmpty() ? DEFAULT_LEVEL : Integer.parseInt(levelText);
+                checkLevel(level);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid level: " + levelText);
+                return;
+            }
+        }
+
         try {
-            byte[] inputBytes = Files.readAllBytes(Paths.get(sourceFileName));
-            byte[] compressedData = compressWithDeflater(new String(inputBytes)); // Using compressWithDeflater instead of compress
-            String compressedString = byteArrayToString(compressedData);
-            System.out.println("Compressed Data:\n" + compressedString); // Print compressed data as string
-            Files.write(Paths.get(archiveName), compressedData);
+            if (format.equals("seekable")) {
+                // Independently decodable blocks plus an index, for range extraction
+                try (BlockArchive.Writer out = new BlockArchive.Writer(AsyncFiles.newOutputStream(Paths.get(archiveName)),
+                        BlockArchive.DEFAULT_BLOCK_SIZE, level)) {
+                    AsyncFiles.forEachBuffer(Paths.get(sourceFileName), out::write);
+                }
+            } else if (format.equals("adaptive")) {
+                compressAdaptive(sourceFileName, archiveName);
+            } else if (format.equals("dedup")) {
+                // Only chunks the store does not hold yet are compressed and written
+                ChunkStore.Stats stats = ChunkStore.store(Paths.get(sourceFileName), Paths.get(archiveName),
+                        Paths.get(storeName), level);
+                System.out.printf("Chunks: %d, %d new, %d bytes stored at %.1f MB/s.%n",
+                        stats.chunks, stats.newChunks, stats.bytesStored, stats.mbPerSecond());
+            } else if (format.equals("long")) {
+                // Repeats up to 2 GiB apart become long matches; Deflate handles the rest
+                LongRangeArchive.Stats stats = LongRangeArchive.compress(Paths.get(sourceFileName),
+                        Paths.get(archiveName), level);
+                System.out.printf("Long-range matches: %d covering %d bytes, %d -> %d bytes at %.1f MB/s.%n",
+                        stats.matches, stats.matchedBytes, stats.bytesIn, stats.bytesOut, stats.mbPerSecond());
+            } else if (format.equals("dictionary")) {
+                // Small documents: a checked zlib stream primed with the shared dictionary
+                try (CompressingOutputStream out = new CompressingOutputStream(AsyncFiles.newOutputStream(Paths.get(archiveName)),
+                        CompressingOutputStream.Mode.DEFLATE, level, dictionary, true)) {
+                    AsyncFiles.forEachBuffer(Paths.get(sourceFileName), out::write);
+                }
+            } else if (format.isEmpty() || format.equals("stream")) {
+                compressStream(sourceFileName, archiveName, level);
+            } else {
+                System.out.println("Unknown archive format: " + format);
+                return;
+            }
+            System.out.println("Compression successful.");
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // A directory becomes a multi-entry archive with its files compressed in parallel
+    private static void packDirectory(String directoryName, String archiveName) {
+        try {
+            MultiArchive.Stats stats = MultiArchive.pack(Paths.get(directoryName), Paths.get(archiveName),
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("Packed %d files, %d -> %d bytes at %.1f MB/s.%n",
+                    stats.files, stats.bytesIn, stats.bytesOut, stats.mbPerSecond());
             System.out.println("Compression successful.");
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
-    private static String byteArrayToString(byte[] byteArray) {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (byte b : byteArray) {
-            stringBuilder.append(String.format("%02X", b)); // Convert each byte to hexadecimal string
+    // Picks store, fast Deflate, LZ77+Huffman or high-level Deflate per block from a
+    // sample of its contents, so incompressible data costs almost no CPU
+    private static void compressAdaptive(String sourceFileName, String archiveName) throws IOException {
+        CompressingOutputStream out = new CompressingOutputStream(AsyncFiles.newOutputStream(Paths.get(archiveName)),
+                CompressingOutputStream.Mode.ADAPTIVE, DEFAULT_LEVEL, null, true);
+        try (out) {
+            AsyncFiles.forEachBuffer(Paths.get(sourceFileName), out::write);
+        }
+        StringJoiner summary = new StringJoiner(", ", "Blocks: ", "");
+        for (BlockCodec.Method method : BlockCodec.Method.values()) {
+            summary.add(method.name().toLowerCase() + " " + out.blockCount(method));
+        }
+        System.out.println(summary);
+    }
+
+    private static void compressStream(String sourceFileName, String archiveName, int level) throws IOException {
+        // Stream through the compressor so memory use does not grow with the file size;
+        // the parallel mode writes the same zlib format using every core
+        CompressingOutputStream.Mode mode = Runtime.getRuntime().availableProcessors() > 1
+                ? CompressingOutputStream.Mode.PARALLEL_DEFLATE
+                : CompressingOutputStream.Mode.DEFLATE;
+        // Checked, so verify and size work without decompressing to disk
+        try (CompressingOutputStream out = new CompressingOutputStream(AsyncFiles.newOutputStream(Paths.get(archiveName)),
+                mode, level, null, true)) {
+            // Reads run ahead and writes behind the compressor, so the disk is busy
+            // while it works; memory stays bounded however large the file is
+            AsyncFiles.forEachBuffer(Paths.get(sourceFileName), out::write);
         }
-        return stringBuilder.toString();
     }
 
     private static void decompCommand(Scanner scanner) {
@@ -111,14 +222,97 @@ public class Main {
     
         System.out.println("Enter file name:");
         String fileName = scanner.nextLine().trim();
-    
+
         try {
-            byte[] compressedData = Files.readAllBytes(Paths.get(archiveName));
-            byte[] decompressedData = inflate(compressedData);
-            Files.write(Paths.get(fileName), decompressedData);
+            if (ChunkStore.isRecipe(Paths.get(archiveName))) {
+                try (OutputStream out = AsyncFiles.newOutputStream(Paths.get(fileName))) {
+                    ChunkStore.restore(Paths.get(archiveName), out);
+                }
+            } else if (LongRangeArchive.isLongRangeArchive(Paths.get(archiveName))) {
+                LongRangeArchive.decompress(Paths.get(archiveName), Paths.get(fileName));
+            } else if (MultiArchive.isMultiArchive(Paths.get(archiveName))) {
+                System.out.println("Enter entry name or leave blank to extract all into the given directory:");
+                String entryName = scanner.nextLine().trim();
+                MultiArchive.Stats stats = entryName.isEmpty()
+                        ? MultiArchive.extractAll(Paths.get(archiveName), Paths.get(fileName),
+                                Runtime.getRuntime().availableProcessors())
+                        : MultiArchive.extract(Paths.get(archiveName), entryName, Paths.get(fileName));
+                System.out.printf("Extracted %d files, %d bytes at %.1f MB/s.%n",
+                        stats.files, stats.bytesIn, stats.mbPerSecond());
+            } else if (BlockArchive.isBlockArchive(Paths.get(archiveName))) {
+                System.out.println("Enter byte range (start-end), block (#n) or leave blank for the whole file:");
+                String range = scanner.nextLine().trim();
+                extractBlocks(archiveName, fileName, range);
+            } else {
+                if (!loadRequiredDictionary(scanner, archiveName)) {
+                    return;
+                }
+                CompressingOutputStream.Mode mode = DecompressingInputStream.detectMode(Paths.get(archiveName));
+                try (InputStream in = new DecompressingInputStream(AsyncFiles.newInputStream(Paths.get(archiveName)), mode);
+                     OutputStream out = AsyncFiles.newOutputStream(Paths.get(fileName))) {
+                    in.transferTo(out);
+                }
+            }
             System.out.println("Decompression successful.");
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("Invalid range: " + e.getMessage());
+        }
+    }
+
+    // Asks for the dictionary a zlib archive was compressed with, unless it is
+    // loaded already. Returns false if the given file is the wrong dictionary.
+    private static boolean loadRequiredDictionary(Scanner scanner, String archiveName) throws IOException {
+        Integer dictionaryId = SharedDictionary.requiredId(Paths.get(archiveName));
+        if (dictionaryId != null && SharedDictionary.forId(dictionaryId) == null) {
+            System.out.println("Enter dictionary file (archive needs " + SharedDictionary.idString(dictionaryId) + "):");
+            byte[] dictionary = SharedDictionary.load(Paths.get(scanner.nextLine().trim()));
+            if (SharedDictionary.id(dictionary) != dictionaryId) {
+                System.out.println("Error: wrong dictionary, its id is " + SharedDictionary.idString(SharedDictionary.id(dictionary)));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Range is "start-end" (end exclusive), "#n" for one block, or empty for everything
+    private static void extractBlocks(String archiveName, String fileName, String range) throws IOException {
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(Paths.get(archiveName))) {
+            if (range.isEmpty()) {
+                reader.extractTo(Paths.get(fileName), ForkJoinPool.commonPool());
+                return;
+            }
+            try (OutputStream out = AsyncFiles.newOutputStream(Paths.get(fileName))) {
+                extractRange(reader, range, out);
+            }
+        }
+    }
+
+    private static void extractRange(BlockArchive.Reader reader, String range, OutputStream out) throws IOException {
+        if (range.startsWith("#")) {
+            out.write(reader.readBlock(Integer.parseInt(range.substring(1))));
+            return;
+        }
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            throw new NumberFormatException("expected start-end, got " + range);
+        }
+        long start = Long.parseLong(range.substring(0, dash).trim());
+        long end = Long.parseLong(range.substring(dash + 1).trim());
+        reader.readRange(start, end - start, out);
+    }
+
+    private static void listCommand(Scanner scanner) {
+        System.out.println("Enter archive name:");
+        String archiveName = scanner.nextLine().trim();
+
+        try {
+            for (MultiArchive.Entry entry : MultiArchive.list(Paths.get(archiveName))) {
+                System.out.printf("%12d %12d  %s%n", entry.size, entry.compressedSize, entry.name);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
         }
     }
 
@@ -129,11 +323,98 @@ public class Main {
         File file = new File(fileName);
         if (file.exists()) {
             System.out.println("File size: " + file.length() + " bytes");
+            try {
+                long originalSize = originalSize(Paths.get(fileName));
+                if (originalSize >= 0) {
+                    System.out.printf("Original size: %d bytes (%.1f%%)%n", originalSize,
+                            originalSize == 0 ? 100.0 : 100.0 * file.length() / originalSize);
+                }
+            } catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
         } else {
             System.out.println("File does not exist.");
         }
     }
 
+    // Uncompressed size from an archive's header or trailer, or -1 for plain zlib and other files
+    private static long originalSize(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return -1;
+        }
+        if (MultiArchive.isMultiArchive(path)) {
+            long size = 0;
+            for (MultiArchive.Entry entry : MultiArchive.list(path)) {
+                size += entry.size;
+            }
+            return size;
+        }
+        if (BlockArchive.isBlockArchive(path)) {
+            try (BlockArchive.Reader reader = new BlockArchive.Reader(path)) {
+                return reader.size();
+            }
+        }
+        if (ChunkStore.isRecipe(path)) {
+            return ChunkStore.originalSize(path);
+        }
+        if (LongRangeArchive.isLongRangeArchive(path)) {
+            return LongRangeArchive.originalSize(path);
+        }
+        return BlockChecksums.originalSize(path);
+    }
+
+    // Decompresses into a discard sink, checking every checksum the archive carries
+    private static void verifyCommand(Scanner scanner) {
+        System.out.println("Enter archive name:");
+        String archiveName = scanner.nextLine().trim();
+        Path path = Paths.get(archiveName);
+
+        try {
+            long start = System.nanoTime();
+            long size;
+            String checks;
+            if (ChunkStore.isRecipe(path)) {
+                ChunkStore.Stats stats = ChunkStore.restore(path, OutputStream.nullOutputStream());
+                size = stats.bytesIn;
+                checks = stats.chunks + " chunk SHA-256s";
+            } else if (LongRangeArchive.isLongRangeArchive(path)) {
+                // Matches reach back into the output, so it has to be a mapped file
+                Path temporary = Files.createTempFile("verify", ".tmp");
+                try {
+                    size = LongRangeArchive.decompress(path, temporary).bytesIn;
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+                checks = "CRC-32C";
+            } else if (MultiArchive.isMultiArchive(path)) {
+                MultiArchive.Stats stats = MultiArchive.verify(path);
+                size = stats.bytesIn;
+                checks = stats.files + " entry CRC-32s";
+            } else if (BlockArchive.isBlockArchive(path)) {
+                try (BlockArchive.Reader reader = new BlockArchive.Reader(path)) {
+                    size = reader.size();
+                    reader.verify(ForkJoinPool.commonPool());
+                    checks = "block CRC-32s";
+                }
+            } else {
+                if (!loadRequiredDictionary(scanner, archiveName)) {
+                    return;
+                }
+                CompressingOutputStream.Mode mode = DecompressingInputStream.detectMode(path);
+                try (InputStream in = new DecompressingInputStream(Files.newInputStream(path), mode)) {
+                    size = in.transferTo(OutputStream.nullOutputStream());
+                }
+                checks = DecompressingInputStream.isChecked(path) ? "block CRC-32Cs"
+                        : mode == CompressingOutputStream.Mode.DEFLATE ? "zlib Adler-32" : "no checksums";
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Archive OK: %d bytes, %s verified at %.1f MB/s.%n", size, checks,
+                    size / (1024.0 * 1024.0) / seconds);
+        } catch (IOException e) {
+            System.out.println("Archive is corrupt: " + e.getMessage());
+        }
+    }
+
     private static void equalCommand(Scanner scanner) {
         System.out.println("Enter first file name:");
         String firstFileName = scanner.nextLine().trim();
@@ -142,16 +423,37 @@ public class Main {
         String secondFileName = scanner.nextLine().trim();
 
         try {
-            byte[] firstFileData = Files.readAllBytes(Paths.get(firstFileName));
-            byte[] secondFileData = Files.readAllBytes(Paths.get(secondFileName));
-
-            boolean isEqual = Arrays.equals(firstFileData, secondFileData);
+            boolean isEqual = MappedFiles.contentEquals(Paths.get(firstFileName), Paths.get(secondFileName));
             System.out.println("Files are equal: " + isEqual);
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
+    // Builds a shared dictionary for small documents from a directory of samples
+    private static void trainCommand(Scanner scanner) {
+        System.out.println("Enter sample directory:");
+        String sampleDirectory = scanner.nextLine().trim();
+
+        System.out.println("Enter dictionary file name:");
+        String dictionaryName = scanner.nextLine().trim();
+
+        try {
+            List<byte[]> samples = SharedDictionary.readSamples(Paths.get(sampleDirectory));
+            if (samples.isEmpty()) {
+                System.out.println("No sample files in " + sampleDirectory);
+                return;
+            }
+            byte[] dictionary = SharedDictionary.train(samples, SharedDictionary.MAX_SIZE);
+            Files.write(Paths.get(dictionaryName), dictionary);
+            SharedDictionary.register(dictionary);
+            System.out.println("Dictionary " + SharedDictionary.idString(SharedDictionary.id(dictionary)) + ": "
+                    + dictionary.length + " bytes from " + samples.size() + " samples.");
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
     private static void aboutCommand() {
         System.out.println("Information about the developers:");
         System.out.println("ByteBenders : Group 1");
@@ -162,256 +464,503 @@ public class Main {
 
     // Compress using LZ77 followed by Huffman coding
     public static byte[] compress(String input) {
-        try {
-            List<LZ77Token> lz77Tokens = lz77Compress(input);
-            byte[] encodedLZ77 = encodeLZ77Tokens(lz77Tokens);
-            String huffmanCompressed = huffmanCompress(encodedLZ77);
-            return toByteArray(huffmanCompressed);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        return compress(input.getBytes(StandardCharsets.UTF_8));
     }
 
-    private static String huffmanCompress(byte[] encodedLZ77) {
-        Map<Character, Integer> frequency = getFrequency(new String(encodedLZ77));
-        HuffmanNode root = buildTree(frequency);
-        Map<Character, String> codes = new HashMap<>();
-        generateCodes(root, "", codes);
-        StringBuilder encoded = new StringBuilder();
-        for (byte b : encodedLZ77) {
-            encoded.append(codes.get((char) b));
-        }
-        return encoded.toString();
+    public static byte[] compress(byte[] input) {
+        return compress(input, DEFAULT_LEVEL);
     }
 
-    private static byte[] inflate(byte[] compressedData) {
+    public static byte[] compress(byte[] input, int level) {
+        StageEvent operation = Metrics.begin();
         try {
-            Inflater inflater = new Inflater();
-            inflater.setInput(compressedData);
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            while (!inflater.finished()) {
-                int count = inflater.inflate(buffer);
-                outputStream.write(buffer, 0, count);
-            }
-            inflater.end();
-            return outputStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            byte[] output = encodeBlock(input, level);
+            Metrics.end(operation, Metrics.Stage.COMPRESS, input.length, output.length);
+            return output;
+        } catch (IllegalStateException e) {
+            Metrics.error(Metrics.Stage.COMPRESS);
+            throw e;
         }
     }
 
-    private static byte[] decompress(byte[] compressedData) {
-        // Perform decompression based on the compression type
-        if (isLZ77Compressed(compressedData)) {
-            return lz77Decompress(compressedData);
-        } else {
-            return huffmanDecompress(compressedData);
-        }
+    // The codec behind compress, without recording a COMPRESS operation: stream
+    // blocks and trial compressions are parts of an operation counted elsewhere
+    static byte[] encodeBlock(byte[] input, int level) {
+        return encodeBlock(input, level, ENTROPY_CODER);
     }
 
-    private static boolean isLZ77Compressed(byte[] compressedData) {
-        return compressedData.length % 3 == 0;
+    // With one coder for every block, so the tests can exercise each
+    static byte[] encodeBlock(byte[] input, int level, EntropyCoder coder) {
+        checkLevel(level);
+        try {
+            HuffmanBlockWriter writer = new HuffmanBlockWriter(input.length / 2, coder);
+            lz77Compress(input, level, new TokenBuffer(writer));
+            return writer.toByteArray();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("LZ77+Huffman compression failed: " + e.getMessage(), e);
+        }
     }
 
-    private static byte[] huffmanDecompress(byte[] encodedData) {
-        if (huffmanRoot == null || encodedData == null || encodedData.length == 0) {
-            System.out.println("Error: Huffman tree is not constructed or encoded data is empty.");
-            return new byte[0]; // Return an empty byte array indicating failure
+    // Entropy-codes token bytes one block at a time. A Huffman block is laid out
+    // as 4-byte symbol count, code-length header, packed canonical codes padded
+    // to a byte; an FSE block as symbol count | FSE_BLOCK, normalized-count
+    // header, 4-byte stream length, stream. A fields block, symbol count |
+    // FSE_BLOCK | FIELDS_BLOCK, has one such header, length and stream per token
+    // field: offset bytes, length bytes and literals each get their own
+    // statistics, which are far more skewed than those of the mixed token bytes.
+    // A symbol count of 0 ends the data. As a token sink it codes every
+    // TokenBuffer block as soon as it fills, reusing scratch arrays for the
+    // token bytes and for one field at a time.
+    private static final class HuffmanBlockWriter implements TokenBuffer.Sink {
+        private final byte[] scratch = new byte[TokenBuffer.DEFAULT_CAPACITY * TOKEN_SIZE];
+        private final byte[] field = new byte[TokenBuffer.DEFAULT_CAPACITY];
+        private final EntropyCoder coder;
+        private byte[] output;
+        private int position;
+        private StageEvent parse = Metrics.begin();
+
+        HuffmanBlockWriter(int expectedSize, EntropyCoder coder) {
+            this.output = new byte[Math.max(64, expectedSize)];
+            this.coder = coder;
         }
 
-        StringBuilder binaryString = new StringBuilder();
-        for (byte b : encodedData) {
-            String byteString = String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
-            binaryString.append(byteString);
+        @Override
+        public void accept(TokenBuffer tokens) {
+            int count = tokens.size() * TOKEN_SIZE;
+            Metrics.end(parse, Metrics.Stage.LZ77_PARSE, tokens.inputLength(), count);
+            StageEvent event = Metrics.begin();
+            tokens.encode(scratch, 0);
+            Metrics.end(event, Metrics.Stage.TOKEN_ENCODE, count, count);
+            int[][] fieldFrequencies = null;
+            if (coder != EntropyCoder.HUFFMAN) {
+                fieldFrequencies = new int[TOKEN_SIZE][];
+                for (int f = 0; f < TOKEN_SIZE; f++) {
+                    fieldFrequencies[f] = tokens.frequency(f);
+                }
+            }
+            write(scratch, count, tokens.frequency(), fieldFrequencies);
+            parse = Metrics.begin();
         }
 
-        List<Byte> result = new ArrayList<>();
-        HuffmanNode current = huffmanRoot; // Initialize current with the root of the Huffman tree
-        int index = 0;
-
-        while (index < binaryString.length()) {
-            char bit = binaryString.charAt(index);
-            if (current.left == null && current.right == null) {
-                // Reached a leaf node, add the character to the result
-                result.add((byte) current.character);
-                current = huffmanRoot; // Reset current to the root
-            } else {
-                if (bit == '0' && current.left != null) {
-                    current = current.left;
-                } else if (bit == '1' && current.right != null) {
-                    current = current.right;
-                } else {
-                    System.out.println("Error: Invalid Huffman code encountered.");
-                    return new byte[0]; // Return an empty byte array indicating failure
+        // fieldFrequencies, when given, are the counts of each token field and
+        // allow a fields block. A full token block or more is Huffman coded in
+        // ParallelHuffman chunks when there is more than one core.
+        void write(byte[] symbols, int count, int[] frequency, int[][] fieldFrequencies) {
+            if (count == 0) {
+                return;
+            }
+            boolean parallel = count >= ParallelHuffman.PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+            StageEvent event = Metrics.begin();
+            int[] lengths = CanonicalHuffman.codeLengths(frequency);
+            int[] codes = CanonicalHuffman.canonicalCodes(lengths);
+            long bits = CanonicalHuffman.encodedBits(frequency, lengths);
+            int headerSize = 4 + CanonicalHuffman.headerSize(lengths);
+            // Larger counts would collide with the block flags
+            if (coder != EntropyCoder.HUFFMAN && count < FIELDS_BLOCK) {
+                int tableLog = FiniteStateEntropy.chooseTableLog(frequency, count);
+                int[] normalized = FiniteStateEntropy.normalize(frequency, count, tableLog);
+                long fseSize = 8 + FiniteStateEntropy.headerSize(normalized)
+                        + (FiniteStateEntropy.encodedBits(frequency, normalized, tableLog) + 7) / 8;
+                int[][] fieldNormalized = null;
+                long fieldsSize = Long.MAX_VALUE;
+                if (fieldFrequencies != null) {
+                    int tokens = count / TOKEN_SIZE;
+                    fieldNormalized = new int[TOKEN_SIZE][];
+                    fieldsSize = 4;
+                    for (int f = 0; f < TOKEN_SIZE; f++) {
+                        int fieldLog = FiniteStateEntropy.chooseTableLog(fieldFrequencies[f], tokens);
+                        fieldNormalized[f] = FiniteStateEntropy.normalize(fieldFrequencies[f], tokens, fieldLog);
+                        fieldsSize += 4 + FiniteStateEntropy.headerSize(fieldNormalized[f])
+                                + (FiniteStateEntropy.encodedBits(fieldFrequencies[f], fieldNormalized[f], fieldLog) + 7) / 8;
+                    }
+                }
+                long huffmanSize = headerSize + (bits + 7) / 8;
+                // FSE encodes on one thread, so it has to gain more to replace the parallel encoder
+                long margin = parallel ? huffmanSize / 64 : 0;
+                if (coder == EntropyCoder.FSE || Math.min(fseSize, fieldsSize) < huffmanSize - margin) {
+                    if (fieldsSize < fseSize) {
+                        Metrics.end(event, Metrics.Stage.HUFFMAN_BUILD, count, fieldsSize);
+                        writeFields(symbols, count, fieldNormalized);
+                    } else {
+                        Metrics.end(event, Metrics.Stage.HUFFMAN_BUILD, count, fseSize);
+                        writeFse(symbols, count, normalized, tableLog);
+                    }
+                    return;
                 }
-                index++;
             }
+            Metrics.end(event, Metrics.Stage.HUFFMAN_BUILD, count, headerSize);
+
+            event = Metrics.begin();
+            int start = position;
+            ensureCapacity(headerSize + (int) ((bits + 7) >>> 3));
+            writeInt(output, position, count);
+            CanonicalHuffman.writeHeader(lengths, output, position + 4);
+            if (parallel) {
+                // Each chunk's own counts give the bit offset it starts at
+                int[][] chunkFrequencies = ParallelHuffman.chunkFrequencies(symbols, 0, count, ForkJoinPool.commonPool());
+                position = ParallelHuffman.encode(symbols, 0, count, chunkFrequencies, codes, lengths, output,
+                        position + headerSize, ForkJoinPool.commonPool());
+            } else {
+                position = CanonicalHuffman.encode(symbols, 0, count, codes, lengths, output, position + headerSize);
+            }
+            Metrics.end(event, Metrics.Stage.HUFFMAN_ENCODE, count, position - start);
         }
 
-        // Convert the list of bytes to a byte array
-        byte[] output = new byte[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            output[i] = result.get(i);
+        private void writeFse(byte[] symbols, int count, int[] normalized, int tableLog) {
+            StageEvent event = Metrics.begin();
+            int start = position;
+            ensureCapacity(8 + FiniteStateEntropy.headerSize(normalized) + FiniteStateEntropy.maxEncodedSize(count, tableLog));
+            writeInt(output, position, count | FSE_BLOCK);
+            int streamOffset = FiniteStateEntropy.writeHeader(normalized, output, position + 4) + 4;
+            position = FiniteStateEntropy.encode(symbols, 0, count, normalized, output, streamOffset);
+            writeInt(output, streamOffset - 4, position - streamOffset);
+            Metrics.end(event, Metrics.Stage.HUFFMAN_ENCODE, count, position - start);
         }
-        return output;
-    }                     
-
-    private static byte[] lz77Decompress(byte[] compressedData) {
-        List<LZ77Token> tokens = new ArrayList<>();
-        for (int i = 0; i < compressedData.length; i += 3) {
-            int packedToken = ((compressedData[i] & 0xFF) << 8) | (compressedData[i + 1] & 0xFF);
-            int offset = packedToken >> 12;
-            int length = packedToken & 0xFFF;
-            char nextCharacter = (char) compressedData[i + 2];
-            tokens.add(new LZ77Token(offset, length, nextCharacter));
-            System.out.println("Decompressing LZ77: Offset = " + offset + ", Length = " + length + ", Next Character = " + nextCharacter);
-        }
-
-        StringBuilder decompressed = new StringBuilder();
-        for (LZ77Token token : tokens) {
-            int startIndex = decompressed.length() - token.offset;
-            int endIndex = startIndex + token.length;
-            for (int i = startIndex; i < endIndex; i++) {
-                decompressed.append(decompressed.charAt(i));
+
+        private void writeFields(byte[] symbols, int count, int[][] normalized) {
+            StageEvent event = Metrics.begin();
+            int start = position;
+            int tokens = count / TOKEN_SIZE;
+            ensureCapacity(4);
+            writeInt(output, position, count | FSE_BLOCK | FIELDS_BLOCK);
+            position += 4;
+            for (int f = 0; f < TOKEN_SIZE; f++) {
+                for (int t = 0, i = f; t < tokens; t++, i += TOKEN_SIZE) {
+                    field[t] = symbols[i];
+                }
+                int tableLog = FiniteStateEntropy.tableLog(normalized[f]);
+                ensureCapacity(4 + FiniteStateEntropy.headerSize(normalized[f]) + FiniteStateEntropy.maxEncodedSize(tokens, tableLog));
+                int streamOffset = FiniteStateEntropy.writeHeader(normalized[f], output, position) + 4;
+                position = FiniteStateEntropy.encode(field, 0, tokens, normalized[f], output, streamOffset);
+                writeInt(output, streamOffset - 4, position - streamOffset);
             }
-            decompressed.append(token.nextCharacter);
+            Metrics.end(event, Metrics.Stage.HUFFMAN_ENCODE, count, position - start);
         }
 
-        byte[] output = new byte[decompressed.length()];
-        for (int i = 0; i < decompressed.length(); i++) {
-            output[i] = (byte) decompressed.charAt(i);
+        byte[] toByteArray() {
+            // Empty input is a lone end marker
+            return position == 0 ? new byte[4] : Arrays.copyOf(output, position);
+        }
+
+        private void ensureCapacity(int length) {
+            if (output.length - position < length) {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, position + length));
+            }
         }
-        return output;
     }
 
-    private static List<LZ77Token> lz77Compress(String input) {
-        List<LZ77Token> tokens = new ArrayList<>();
-        int currentIndex = 0;
+    // One coder for every block, so the benchmarks can compare them; both
+    // decode with huffmanDecompress
+    static byte[] huffmanCompress(byte[] encodedLZ77) {
+        return entropyCompress(encodedLZ77, EntropyCoder.HUFFMAN);
+    }
 
-        while (currentIndex < input.length()) {
-            int matchLength = 0;
-            int matchIndex = 0;
-
-            int startWindowIndex = Math.max(0, currentIndex - WINDOW_SIZE);
-            int endWindowIndex = currentIndex;
-            int endLookAheadBuffer = Math.min(currentIndex + LOOK_AHEAD_BUFFER_SIZE, input.length());
-            for (int i = startWindowIndex; i < endWindowIndex; i++) {
-                int len = findMatchLength(input, i, currentIndex, endLookAheadBuffer);
-                if (len > matchLength) {
-                    matchLength = len;
-                    matchIndex = currentIndex - i;
-                }
-            }
+    static byte[] fseCompress(byte[] data) {
+        return entropyCompress(data, EntropyCoder.FSE);
+    }
 
-            if (matchLength > 0) {
-                tokens.add(new LZ77Token(matchIndex, matchLength, input.charAt(currentIndex + matchLength - 1)));
-                currentIndex += matchLength;
-            } else {
-                tokens.add(new LZ77Token(0, 0, input.charAt(currentIndex)));
-                currentIndex++;
-            }
-        }
+    private static byte[] entropyCompress(byte[] encodedLZ77, EntropyCoder coder) {
+        HuffmanBlockWriter writer = new HuffmanBlockWriter(encodedLZ77.length, coder);
+        writer.write(encodedLZ77, encodedLZ77.length, getFrequency(encodedLZ77), null);
+        return writer.toByteArray();
+    }
+
+    // Plain zlib decoding as an operation, the counterpart of compressWithDeflater
+    static byte[] inflate(byte[] compressedData) throws ZipException {
+        StageEvent operation = Metrics.begin();
+        byte[] output = ZlibCodec.decompress(compressedData);
+        Metrics.end(operation, Metrics.Stage.DECOMPRESS, compressedData.length, output.length);
+        return output;
+    }
 
-        return tokens;
+    // Reverse of compress: Huffman decoding followed by LZ77 decoding
+    public static byte[] decompress(byte[] compressedData) throws ZipException {
+        StageEvent operation = Metrics.begin();
+        byte[] output = decodeBlock(compressedData);
+        Metrics.end(operation, Metrics.Stage.DECOMPRESS, compressedData == null ? 0 : compressedData.length, output.length);
+        return output;
     }
 
-    private static int findMatchLength(String input, int windowIndex, int currentIndex, int endLookAheadBuffer) {
-        int maxLength = Math.min(LOOK_AHEAD_BUFFER_SIZE, endLookAheadBuffer - currentIndex);
-        int length = 0;
+    // Counterpart of encodeBlock, without recording a DECOMPRESS operation
+    static byte[] decodeBlock(byte[] compressedData) throws ZipException {
+        return lz77Decompress(huffmanDecompress(compressedData));
+    }
 
-        while (length < maxLength && input.charAt(windowIndex + length) == input.charAt(currentIndex + length)) {
-            length++;
+    static byte[] huffmanDecompress(byte[] encodedData) throws ZipException {
+        if (encodedData == null || encodedData.length < 4) {
+            Metrics.error(Metrics.Stage.HUFFMAN_DECODE);
+            throw new ZipException("Truncated Huffman data");
         }
 
-        return length;
+        try {
+            StageEvent event = Metrics.begin();
+            byte[] output = new byte[0];
+            int outputLength = 0;
+            int[] lengths = new int[CanonicalHuffman.SYMBOLS];
+            int[] normalized = new int[CanonicalHuffman.SYMBOLS];
+            int position = 0;
+            while (position + 4 <= encodedData.length) {
+                int symbolCount = readInt(encodedData, position);
+                if (symbolCount == 0) {
+                    break;
+                }
+                if ((symbolCount & FSE_BLOCK) != 0) {
+                    boolean fields = (symbolCount & FIELDS_BLOCK) != 0;
+                    symbolCount &= ~(FSE_BLOCK | FIELDS_BLOCK);
+                    if (output.length - outputLength < symbolCount) {
+                        output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + symbolCount));
+                    }
+                    position = fields
+                            ? decodeFields(encodedData, position + 4, normalized, output, outputLength, symbolCount)
+                            : decodeFse(encodedData, position + 4, normalized, output, outputLength, symbolCount);
+                    outputLength += symbolCount;
+                    continue;
+                }
+                Arrays.fill(lengths, 0);
+                int dataOffset = CanonicalHuffman.readHeader(encodedData, position + 4, lengths);
+                // Every code is at least one bit long
+                if (symbolCount > 8L * (encodedData.length - dataOffset)) {
+                    throw new IllegalArgumentException("Huffman block of " + symbolCount + " symbols is truncated");
+                }
+                int[] table = CanonicalHuffman.decodeTable(lengths);
+                if (output.length - outputLength < symbolCount) {
+                    output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + symbolCount));
+                }
+                CanonicalHuffman.decode(encodedData, dataOffset, encodedData.length, table, output, outputLength, symbolCount);
+                // Blocks carry no byte length; the next one starts after the padded codes
+                long bits = 0;
+                for (int i = outputLength; i < outputLength + symbolCount; i++) {
+                    bits += lengths[output[i] & 0xFF];
+                }
+                outputLength += symbolCount;
+                position = dataOffset + (int) ((bits + 7) >>> 3);
+            }
+            if (position < encodedData.length && position + 4 > encodedData.length) {
+                throw new IllegalArgumentException("Truncated block header at " + position);
+            }
+            Metrics.end(event, Metrics.Stage.HUFFMAN_DECODE, encodedData.length, outputLength);
+            return output.length == outputLength ? output : Arrays.copyOf(output, outputLength);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            Metrics.error(Metrics.Stage.HUFFMAN_DECODE);
+            throw new ZipException("Corrupt Huffman data: " + e.getMessage());
+        }
     }
 
-    private static byte[] encodeLZ77Tokens(List<LZ77Token> tokens) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        for (LZ77Token token : tokens) {
-            int packedToken = (token.offset << 12) | token.length;
-            outputStream.write((packedToken >> 8) & 0xFF);
-            outputStream.write(packedToken & 0xFF);
-            outputStream.write(token.nextCharacter);
+    // Decodes one FSE header, length and stream at offset into out and returns the offset past the stream
+    private static int decodeFse(byte[] in, int offset, int[] normalized, byte[] out, int outOffset, int count) {
+        int streamOffset = FiniteStateEntropy.readHeader(in, offset, normalized) + 4;
+        if (streamOffset > in.length) {
+            throw new IllegalArgumentException("Truncated FSE block");
+        }
+        int streamEnd = streamOffset + readInt(in, streamOffset - 4);
+        if (streamEnd < streamOffset || streamEnd > in.length) {
+            throw new IllegalArgumentException("Truncated FSE block");
+        }
+        int symbol = FiniteStateEntropy.singleSymbol(normalized);
+        if (symbol >= 0) {
+            // Such as the top offset byte of a block without far matches; decoding
+            // no symbols still checks the states and marker
+            Arrays.fill(out, outOffset, outOffset + count, (byte) symbol);
+            count = 0;
         }
-        return outputStream.toByteArray();
+        FiniteStateEntropy.decode(in, streamOffset, streamEnd, FiniteStateEntropy.decodeTable(normalized),
+                out, outOffset, count);
+        return streamEnd;
     }
 
-    private static Map<Character, Integer> getFrequency(String text) {
-        Map<Character, Integer> frequency = new HashMap<>();
-        for (char c : text.toCharArray()) {
-            frequency.put(c, frequency.getOrDefault(c, 0) + 1);
+    // Decodes the per-field streams of a fields block and interleaves them back into tokens
+    private static int decodeFields(byte[] in, int offset, int[] normalized, byte[] out, int outOffset, int count) {
+        if (count % TOKEN_SIZE != 0) {
+            throw new IllegalArgumentException("FSE fields block of " + count + " bytes is not whole tokens");
         }
-        return frequency;
+        int tokens = count / TOKEN_SIZE;
+        byte[] fields = new byte[count];
+        for (int f = 0; f < TOKEN_SIZE; f++) {
+            offset = decodeFse(in, offset, normalized, fields, f * tokens, tokens);
+        }
+        // One sequential pass over the output, reading the six fields side by side
+        for (int t = 0, i = outOffset; t < tokens; t++, i += TOKEN_SIZE) {
+            out[i] = fields[t];
+            out[i + 1] = fields[tokens + t];
+            out[i + 2] = fields[2 * tokens + t];
+            out[i + 3] = fields[3 * tokens + t];
+            out[i + 4] = fields[4 * tokens + t];
+            out[i + 5] = fields[5 * tokens + t];
+        }
+        return offset;
     }
 
-    private static HuffmanNode buildTree(Map<Character, Integer> freq) {
-        PriorityQueue<HuffmanNode> priorityQueue = new PriorityQueue<>();
-        for (Map.Entry<Character, Integer> entry : freq.entrySet()) {
-            priorityQueue.add(new HuffmanNode(entry.getKey(), entry.getValue()));
+    // Decodes token bytes straight into the output, sized up front from the token lengths
+    private static byte[] lz77Decompress(byte[] compressedData) throws ZipException {
+        StageEvent event = Metrics.begin();
+        if (compressedData.length % TOKEN_SIZE != 0) {
+            Metrics.error(Metrics.Stage.LZ77_DECODE);
+            throw new ZipException("Truncated LZ77 token data");
+        }
+        long outputLength = 0;
+        for (int i = 0; i < compressedData.length; i += TOKEN_SIZE) {
+            outputLength += (((compressedData[i + 3] & 0xFF) << 8) | (compressedData[i + 4] & 0xFF)) + 1;
+        }
+        if (outputLength > Integer.MAX_VALUE - 8) {
+            Metrics.error(Metrics.Stage.LZ77_DECODE);
+            throw new ZipException("Decompressed data too large");
         }
 
-        while (priorityQueue.size() > 1) {
-            HuffmanNode left = priorityQueue.poll();
-            HuffmanNode right = priorityQueue.poll();
-            HuffmanNode sum = new HuffmanNode('\0', left.frequency + right.frequency);
-            sum.left = left;
-            sum.right = right;
-            priorityQueue.add(sum);
+        byte[] output = new byte[(int) outputLength];
+        int position = 0;
+        for (int i = 0; i < compressedData.length; i += TOKEN_SIZE) {
+            int offset = ((compressedData[i] & 0xFF) << 16) | ((compressedData[i + 1] & 0xFF) << 8) | (compressedData[i + 2] & 0xFF);
+            int length = ((compressedData[i + 3] & 0xFF) << 8) | (compressedData[i + 4] & 0xFF);
+            byte nextCharacter = compressedData[i + 5];
+            if (Metrics.DEBUG) {
+                System.out.println("Decompressing LZ77: Offset = " + offset + ", Length = " + length + ", Next Character = " + (char) (nextCharacter & 0xFF));
+            }
+            if (length > 0) {
+                if (offset == 0 || offset > position) {
+                    Metrics.error(Metrics.Stage.LZ77_DECODE);
+                    throw new ZipException("Invalid LZ77 offset " + offset + " at " + position);
+                }
+                // Byte by byte, since the match may overlap the bytes it produces
+                for (int from = position - offset, end = position + length; position < end; ) {
+                    output[position++] = output[from++];
+                }
+            }
+            output[position++] = nextCharacter;
         }
+        Metrics.end(event, Metrics.Stage.LZ77_DECODE, compressedData.length, output.length);
+        return output;
+    }
+
+    // Parses input at the default level, discarding the tokens; returns their count
+    static int lz77Compress(byte[] input) {
+        return (int) lz77Compress(input, DEFAULT_LEVEL, new TokenBuffer(tokens -> { }));
+    }
 
-        return priorityQueue.poll();
+    // Feeds the tokens for input to the buffer, flushes it and returns the token count
+    static long lz77Compress(byte[] input, int level, TokenBuffer tokens) {
+        checkLevel(level);
+        MatchFinder matchFinder = new MatchFinder(WINDOW_SIZE, MAX_MATCH_LENGTH, LEVEL_CHAIN_DEPTH[level]);
+        if (level >= 8) {
+            new OptimalParser(input, matchFinder).parse(LEVEL_REFINEMENTS[level], tokens);
+        } else {
+            lz77Compress(input, matchFinder, LEVEL_NICE_LENGTH[level], tokens);
+        }
+        tokens.flush();
+        return tokens.totalTokens();
     }
 
-    private static void generateCodes(HuffmanNode node, String code, Map<Character, String> codes) {
-        if (node != null) {
-            if (node.left == null && node.right == null) {
-                codes.put(node.character, code);
+    // Greedy when niceLength is 0; otherwise a match shorter than niceLength is
+    // deferred by a literal if the next position has a longer one
+    private static void lz77Compress(byte[] input, MatchFinder matchFinder, int niceLength, TokenBuffer tokens) {
+        matchFinder.reset(input, input.length);
+        int currentIndex = 0;
+        int insertedTo = 0;
+        // Match already found at currentIndex by the previous lazy check
+        int pendingLength = -1;
+        int pendingOffset = 0;
+
+        while (currentIndex < input.length) {
+            int matchLength;
+            int matchOffset;
+            if (pendingLength >= 0) {
+                matchLength = pendingLength;
+                matchOffset = pendingOffset;
+                pendingLength = -1;
+            } else {
+                matchFinder.insert(insertedTo, currentIndex);
+                insertedTo = currentIndex;
+                // Leave room for the literal that follows every match
+                matchLength = matchFinder.findMatch(currentIndex, input.length - 1);
+                matchOffset = matchFinder.matchOffset();
+            }
+
+            if (matchLength > 0 && matchLength < niceLength) {
+                matchFinder.insert(insertedTo, currentIndex + 1);
+                insertedTo = currentIndex + 1;
+                int nextLength = matchFinder.findMatch(currentIndex + 1, input.length - 1);
+                if (nextLength > matchLength) {
+                    tokens.addLiteral(input[currentIndex]);
+                    pendingLength = nextLength;
+                    pendingOffset = matchFinder.matchOffset();
+                    currentIndex++;
+                    continue;
+                }
+            }
+
+            if (matchLength > 0) {
+                int nextIndex = currentIndex + matchLength;
+                tokens.add(matchOffset, matchLength, input[nextIndex]);
+                currentIndex = nextIndex + 1;
+            } else {
+                tokens.addLiteral(input[currentIndex]);
+                currentIndex++;
             }
-            generateCodes(node.left, code + "0", codes);
-            generateCodes(node.right, code + "1", codes);
         }
     }
 
-    private static byte[] toByteArray(String input) {
-        StringBuilder binaryString = new StringBuilder(input.length() * 8);
-        for (char c : input.toCharArray()) {
-            String binary = Integer.toBinaryString(c);
-            while (binary.length() < 8) {
-                binary = "0" + binary;
+    private static EntropyCoder entropyCoder(String name) {
+        for (EntropyCoder coder : EntropyCoder.values()) {
+            if (coder.name().equalsIgnoreCase(name)) {
+                return coder;
             }
-            binaryString.append(binary);
         }
+        return EntropyCoder.AUTO;
+    }
 
-        int length = binaryString.length();
-        byte[] byteArray = new byte[length / 8];
-        for (int i = 0; i < length; i += 8) {
-            String byteString = binaryString.substring(i, i + 8);
-            byteArray[i / 8] = (byte) Integer.parseInt(byteString, 2);
+    static void checkLevel(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Compression level must be between " + MIN_LEVEL + " and " + MAX_LEVEL + ": " + level);
         }
+    }
 
-        return byteArray;
+    private static int[] getFrequency(byte[] data) {
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        addFrequency(data, 0, data.length, frequency);
+        return frequency;
     }
 
-    private static byte[] compressWithDeflater(String input) {
-        try {
-            Deflater deflater = new Deflater();
-            deflater.setInput(input.getBytes("UTF-8"));
-            deflater.finish();
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            while (!deflater.finished()) {
-                int count = deflater.deflate(buffer);
-                outputStream.write(buffer, 0, count);
+    // Adds the byte counts of data[offset, offset + length) to frequency. Long
+    // ranges are counted in four interleaved sub-histograms, so a run of one
+    // byte value does not wait on the store of the same counter every increment.
+    static void addFrequency(byte[] data, int offset, int length, int[] frequency) {
+        int end = offset + length;
+        int i = offset;
+        if (length >= STRIPED_COUNT_MIN) {
+            int[] f1 = new int[CanonicalHuffman.SYMBOLS];
+            int[] f2 = new int[CanonicalHuffman.SYMBOLS];
+            int[] f3 = new int[CanonicalHuffman.SYMBOLS];
+            for (; i + 3 < end; i += 4) {
+                frequency[data[i] & 0xFF]++;
+                f1[data[i + 1] & 0xFF]++;
+                f2[data[i + 2] & 0xFF]++;
+                f3[data[i + 3] & 0xFF]++;
             }
-            deflater.end();
-            return outputStream.toByteArray();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            for (int symbol = 0; symbol < CanonicalHuffman.SYMBOLS; symbol++) {
+                frequency[symbol] += f1[symbol] + f2[symbol] + f3[symbol];
+            }
+        }
+        for (; i < end; i++) {
+            frequency[data[i] & 0xFF]++;
         }
     }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    // The parallel mode splits the input into blocks compressed on the common ForkJoinPool
+    static byte[] compressWithDeflater(byte[] input, boolean parallel) throws ZipException {
+        StageEvent operation = Metrics.begin();
+        byte[] output = parallel ? ParallelDeflater.compress(input) : ZlibCodec.compress(input);
+        Metrics.end(operation, Metrics.Stage.COMPRESS, input.length, output.length);
+        return output;
+    }
 }
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Memory-mapped file access in fixed-size windows, so files larger than the
+// heap (or the 2 GiB limit of a single mapping) are read without heap copies.
+public final class MappedFiles {
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    public interface WindowConsumer {
+        void accept(ByteBuffer window) throws IOException;
+    }
+
+    // A whole file mapped as consecutive segments and addressed by long
+    // positions, for codecs that reach further back than one window
+    public static final class Region {
+        static final int SEGMENT_BITS = 30;
+        static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+        private static final int SEGMENT_MASK = (int) SEGMENT_SIZE - 1;
+
+        private final MappedByteBuffer[] segments;
+        private final long size;
+
+        // Read-write mappings grow the file to size
+        public Region(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+            this.size = size;
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(mode, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public byte get(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)].get((int) position & SEGMENT_MASK);
+        }
+
+        // View of [position, position + length) that does not cross a segment
+        // boundary; length is cut short at the boundary
+        public ByteBuffer slice(long position, long length) {
+            int offset = (int) position & SEGMENT_MASK;
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+            return segment.slice(offset, (int) Math.min(length, segment.limit() - offset));
+        }
+
+        public void put(long position, byte[] src, int off, int len) {
+            while (len > 0) {
+                ByteBuffer target = slice(position, len);
+                int count = target.remaining();
+                target.put(src, off, count);
+                position += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        // Number of equal bytes at first and second, up to max
+        public long matchLength(long first, long second, long max) {
+            long length = 0;
+            while (length < max) {
+                ByteBuffer a = slice(first + length, max - length);
+                ByteBuffer b = slice(second + length, a.remaining());
+                a.limit(b.remaining());
+                int mismatch = a.mismatch(b);
+                if (mismatch >= 0) {
+                    return length + mismatch;
+                }
+                length += a.remaining();
+            }
+            return max;
+        }
+
+        // Copies length bytes from from to to, which may overlap it from above.
+        // The source steps back a multiple of the distance into what is already
+        // written, so a run of period distance is copied in doubling spans.
+        public void copy(long from, long to, long length) {
+            long distance = to - from;
+            while (length > 0) {
+                long span = (to - from) / distance * distance;
+                ByteBuffer target = slice(to, Math.min(length, span));
+                ByteBuffer source = slice(to - span, target.remaining());
+                target.limit(source.remaining());
+                int count = source.remaining();
+                target.put(source);
+                to += count;
+                length -= count;
+            }
+        }
+    }
+
+    private MappedFiles() {
+    }
+
+    // Compares sizes first, then mapped windows with ByteBuffer.mismatch,
+    // stopping at the first difference
+    public static boolean contentEquals(Path first, Path second) throws IOException {
+        if (Files.isSameFile(first, second)) {
+            return true;
+        }
+        try (FileChannel firstChannel = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel secondChannel = FileChannel.open(second, StandardOpenOption.READ)) {
+            long size = firstChannel.size();
+            if (size != secondChannel.size()) {
+                return false;
+            }
+            for (long position = 0; position < size; position += WINDOW_SIZE) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer firstWindow = firstChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                MappedByteBuffer secondWindow = secondChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (firstWindow.mismatch(secondWindow) != -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Hands each mapped window of the file to the consumer in order and
+    // returns the file size
+    public static long forEachWindow(Path path, WindowConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += WINDOW_SIZE) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+// Hash-chain match finder for LZ77: hash heads on 3-byte prefixes plus a
+// chain of previous positions with the same hash, bounded by the window.
+public class MatchFinder {
+    public static final int MIN_MATCH = 3;
+    public static final int MIN_WINDOW_SIZE = 32 * 1024;
+    public static final int MAX_WINDOW_SIZE = 1024 * 1024;
+
+    private static final int HASH_BITS = 16;
+
+    private final int windowSize;
+    private final int windowMask;
+    private final int maxMatch;
+    private final int maxChain;
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] prev;
+
+    private byte[] data;
+    private int limit;
+    private int matchOffset;
+
+    public MatchFinder(int windowSize, int maxMatch, int maxChain) {
+        if (windowSize < MIN_WINDOW_SIZE || windowSize > MAX_WINDOW_SIZE || Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("Window size must be a power of two between 32 KiB and 1 MiB: " + windowSize);
+        }
+        if (maxMatch < MIN_MATCH) {
+            throw new IllegalArgumentException("Max match length must be at least " + MIN_MATCH + ": " + maxMatch);
+        }
+        if (maxChain < 1) {
+            throw new IllegalArgumentException("Max chain depth must be positive: " + maxChain);
+        }
+        this.windowSize = windowSize;
+        this.windowMask = windowSize - 1;
+        this.maxMatch = maxMatch;
+        this.maxChain = maxChain;
+        this.prev = new int[windowSize];
+    }
+
+    // Start matching over data[0, limit)
+    public void reset(byte[] data, int limit) {
+        this.data = data;
+        this.limit = limit;
+        this.matchOffset = 0;
+        Arrays.fill(head, -1);
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    public int maxMatch() {
+        return maxMatch;
+    }
+
+    // Offset of the match returned by the last findMatch call
+    public int matchOffset() {
+        return matchOffset;
+    }
+
+    // Returns the longest match length at pos that ends before end, or 0 if
+    // nothing of at least MIN_MATCH bytes was found. Does not insert pos.
+    public int findMatch(int pos, int end) {
+        int maxLength = Math.min(maxMatch, Math.min(end, limit) - pos);
+        if (maxLength < MIN_MATCH) {
+            return 0;
+        }
+
+        byte[] buf = data;
+        int minPos = pos - windowSize;
+        int candidate = head[hash(buf, pos)];
+        int chain = maxChain;
+        int bestLength = MIN_MATCH - 1;
+        int bestOffset = 0;
+
+        while (candidate > minPos && candidate >= 0 && chain-- > 0) {
+            // Cheap rejection on the byte that would extend the current best
+            if (buf[candidate + bestLength] == buf[pos + bestLength] && buf[candidate] == buf[pos]) {
+                int length = 1;
+                while (length < maxLength && buf[candidate + length] == buf[pos + length]) {
+                    length++;
+                }
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestOffset = pos - candidate;
+                    if (length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            int next = prev[candidate & windowMask];
+            if (next >= candidate) {
+                break; // slot was reused by a newer position
+            }
+            candidate = next;
+        }
+
+        if (bestOffset == 0) {
+            return 0;
+        }
+        matchOffset = bestOffset;
+        return bestLength;
+    }
+
+    // Fills lengths and offsets with the closest match of each new length found
+    // along the chain, so lengths increase and offsets grow with them, and
+    // returns how many there are. Past lengths.length matches the last slot
+    // keeps the longest. Does not insert pos.
+    public int findMatches(int pos, int end, int[] lengths, int[] offsets) {
+        int maxLength = Math.min(maxMatch, Math.min(end, limit) - pos);
+        if (maxLength < MIN_MATCH) {
+            return 0;
+        }
+
+        byte[] buf = data;
+        int minPos = pos - windowSize;
+        int candidate = head[hash(buf, pos)];
+        int chain = maxChain;
+        int bestLength = MIN_MATCH - 1;
+        int count = 0;
+
+        while (candidate > minPos && candidate >= 0 && chain-- > 0) {
+            if (buf[candidate + bestLength] == buf[pos + bestLength] && buf[candidate] == buf[pos]) {
+                int length = 1;
+                while (length < maxLength && buf[candidate + length] == buf[pos + length]) {
+                    length++;
+                }
+                if (length > bestLength) {
+                    bestLength = length;
+                    if (count == lengths.length) {
+                        count--;
+                    }
+                    lengths[count] = length;
+                    offsets[count] = pos - candidate;
+                    count++;
+                    if (length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            int next = prev[candidate & windowMask];
+            if (next >= candidate) {
+                break;
+            }
+            candidate = next;
+        }
+        return count;
+    }
+
+    public void insert(int pos) {
+        if (pos + MIN_MATCH > limit) {
+            return;
+        }
+        int h = hash(data, pos);
+        prev[pos & windowMask] = head[h];
+        head[h] = pos;
+    }
+
+    // Inserts every position in [from, to)
+    public void insert(int from, int to) {
+        for (int pos = from; pos < to; pos++) {
+            insert(pos);
+        }
+    }
+
+    private static int hash(byte[] buf, int pos) {
+        int key = ((buf[pos] & 0xFF) << 16) | ((buf[pos + 1] & 0xFF) << 8) | (buf[pos + 2] & 0xFF);
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,46 @@
+// Entry point for stage instrumentation. Every stage is timed into the
+// CompressionStats counters and, when a JFR recording has the event enabled,
+// emitted as a StageEvent:
+//
+//   StageEvent event = Metrics.begin();
+//   ... work ...
+//   Metrics.end(event, Metrics.Stage.DEFLATE, bytesIn, bytesOut);
+public final class Metrics {
+
+    // COMPRESS and DECOMPRESS cover whole operations and are recorded once, at the
+    // outermost entry point; the rest are the stages inside them
+    public enum Stage {
+        COMPRESS, DECOMPRESS, LZ77_PARSE, TOKEN_ENCODE, HUFFMAN_BUILD, HUFFMAN_ENCODE, HUFFMAN_DECODE,
+        LZ77_DECODE, DEFLATE, INFLATE, READ, WRITE
+    }
+
+    // -Dcomprizip.log=debug enables tracing output. A constant, so the JIT
+    // removes guarded prints entirely when it is off.
+    public static final boolean DEBUG = "debug".equalsIgnoreCase(System.getProperty("comprizip.log"));
+
+    private Metrics() {
+    }
+
+    public static StageEvent begin() {
+        StageEvent event = new StageEvent();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    public static void end(StageEvent event, Stage stage, long bytesIn, long bytesOut) {
+        long elapsed = System.nanoTime() - event.startNanos;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.name().toLowerCase();
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.commit();
+        }
+        CompressionStats.INSTANCE.record(stage, bytesIn, bytesOut, elapsed);
+    }
+
+    public static void error(Stage stage) {
+        CompressionStats.INSTANCE.error(stage);
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipException;
+
+// Multi-entry archive of a directory tree. Entries are compressed concurrently,
+// each as its own zlib stream through CompressingOutputStream, and appended in
+// completion order; a central directory at the end records where each one is.
+//
+// Layout:
+//   header     "CZMA", version byte
+//   entries    one zlib stream per file
+//   directory  per entry: name (modified UTF-8), size (long), offset (long),
+//              compressed size (long), CRC-32 (int)
+//   trailer    directory offset (long), entry count (int), "CZMD"
+public class MultiArchive {
+    private static final int HEADER_MAGIC = 0x435A4D41; // "CZMA"
+    private static final int TRAILER_MAGIC = 0x435A4D44; // "CZMD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final int TRAILER_SIZE = 16;
+    // Larger entries are compressed to a temporary file instead of the heap
+    private static final long IN_MEMORY_LIMIT = 4L * 1024 * 1024;
+
+    public static final class Entry {
+        public final String name;
+        public final long size;
+        public final long offset;
+        public final long compressedSize;
+        public final int crc;
+
+        Entry(String name, long size, long offset, long compressedSize, int crc) {
+            this.name = name;
+            this.size = size;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.crc = crc;
+        }
+    }
+
+    public static final class Stats {
+        public final int files;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long nanos;
+
+        Stats(int files, long bytesIn, long bytesOut, long nanos) {
+            this.files = files;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.nanos = nanos;
+        }
+
+        // Uncompressed MB per second of wall time
+        public double mbPerSecond() {
+            return nanos == 0 ? 0 : bytesIn / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
+    }
+
+    // One compressed entry waiting to be appended
+    private static final class Compressed {
+        final String name;
+        final long size;
+        final int crc;
+        final byte[] data;
+        final Path spill;
+
+        Compressed(String name, long size, int crc, byte[] data, Path spill) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+            this.data = data;
+            this.spill = spill;
+        }
+    }
+
+    public static boolean isMultiArchive(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + TRAILER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            readFully(channel, header, 0);
+            readFully(channel, trailer, channel.size() - 4);
+            return header.getInt(0) == HEADER_MAGIC && trailer.getInt(0) == TRAILER_MAGIC;
+        }
+    }
+
+    public static Stats pack(Path directory, Path archive, int threads) throws IOException {
+        long start = System.nanoTime();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CompletionService<Compressed> completion = new ExecutorCompletionService<>(pool);
+            // Keep a bounded number of compressed entries waiting for the writer
+            int window = 4 * threads;
+            int submitted = 0;
+            while (submitted < files.size() && submitted < window) {
+                submit(completion, directory, files.get(submitted++));
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(HEADER_MAGIC).put((byte) VERSION);
+            writeFully(channel, header.flip());
+            List<Entry> entries = new ArrayList<>(files.size());
+            long bytesIn = 0;
+            for (int i = 0; i < files.size(); i++) {
+                Compressed compressed = take(completion);
+                if (submitted < files.size()) {
+                    submit(completion, directory, files.get(submitted++));
+                }
+                long offset = channel.position();
+                if (compressed.spill == null) {
+                    writeFully(channel, ByteBuffer.wrap(compressed.data));
+                } else {
+                    try (FileChannel spill = FileChannel.open(compressed.spill, StandardOpenOption.READ)) {
+                        long size = spill.size();
+                        for (long copied = 0; copied < size; ) {
+                            copied += spill.transferTo(copied, size - copied, channel);
+                        }
+                        channel.position(offset + size);
+                    } finally {
+                        Files.deleteIfExists(compressed.spill);
+                    }
+                }
+                entries.add(new Entry(compressed.name, compressed.size, offset, channel.position() - offset, compressed.crc));
+                bytesIn += compressed.size;
+            }
+
+            entries.sort(Comparator.comparing(entry -> entry.name));
+            long directoryOffset = channel.position();
+            ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(directoryBytes);
+            for (Entry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                out.writeLong(entry.offset);
+                out.writeLong(entry.compressedSize);
+                out.writeInt(entry.crc);
+            }
+            out.writeLong(directoryOffset);
+            out.writeInt(entries.size());
+            out.writeInt(TRAILER_MAGIC);
+            writeFully(channel, ByteBuffer.wrap(directoryBytes.toByteArray()));
+            return new Stats(entries.size(), bytesIn, channel.position(), System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public static List<Entry> list(Path archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            return readDirectory(channel);
+        }
+    }
+
+    // Extracts a single entry, reading only its own bytes and the directory
+    public static Stats extract(Path archive, String name, Path target) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            for (Entry entry : readDirectory(channel)) {
+                if (entry.name.equals(name)) {
+                    extractEntry(channel, entry, target);
+                    return new Stats(1, entry.size, entry.compressedSize, System.nanoTime() - start);
+                }
+            }
+        }
+        throw new ZipException("No entry named " + name);
+    }
+
+    public static Stats extractAll(Path archive, Path directory, int threads) throws IOException {
+        long start = System.nanoTime();
+        List<Entry> entries = list(archive);
+        Path root = directory.toAbsolutePath().normalize();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                Path target = root.resolve(entry.name).normalize();
+                if (!target.startsWith(root)) {
+                    throw new ZipException("Entry escapes the target directory: " + entry.name);
+                }
+                futures.add(pool.submit(() -> {
+                    try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+                        extractEntry(channel, entry, target);
+                    }
+                    return null;
+                }));
+            }
+            long bytesIn = 0;
+            long bytesOut = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                get(futures.get(i));
+                bytesIn += entries.get(i).size;
+                bytesOut += entries.get(i).compressedSize;
+            }
+            return new Stats(entries.size(), bytesIn, bytesOut, System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Decompresses every entry into a discard sink, checking sizes and CRCs
+    public static Stats verify(Path archive) throws IOException {
+        long start = System.nanoTime();
+        List<Entry> entries = list(archive);
+        long bytesIn = 0;
+        long bytesOut = 0;
+        for (Entry entry : entries) {
+            copyEntry(FileChannel.open(archive, StandardOpenOption.READ), entry, OutputStream.nullOutputStream());
+            bytesIn += entry.size;
+            bytesOut += entry.compressedSize;
+        }
+        return new Stats(entries.size(), bytesIn, bytesOut, System.nanoTime() - start);
+    }
+
+    private static void submit(CompletionService<Compressed> completion, Path directory, Path file) {
+        String name = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+        completion.submit(() -> compressEntry(file, name));
+    }
+
+    private static Compressed compressEntry(Path file, String name) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = Files.size(file);
+        Path spill = size > IN_MEMORY_LIMIT ? Files.createTempFile("comprizip", ".entry") : null;
+        try {
+            ByteArrayOutputStream buffer = spill == null ? new ByteArrayOutputStream((int) (size / 2) + 64) : null;
+            try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc);
+                 OutputStream out = new CompressingOutputStream(spill == null ? buffer : Files.newOutputStream(spill))) {
+                size = in.transferTo(out);
+            }
+            return new Compressed(name, size, (int) crc.getValue(), spill == null ? buffer.toByteArray() : null, spill);
+        } catch (IOException | RuntimeException e) {
+            if (spill != null) {
+                Files.deleteIfExists(spill);
+            }
+            throw e;
+        }
+    }
+
+    private static void extractEntry(FileChannel channel, Entry entry, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(target)) {
+            copyEntry(channel, entry, out);
+        }
+    }
+
+    // Closes the channel
+    private static void copyEntry(FileChannel channel, Entry entry, OutputStream out) throws IOException {
+        CRC32 crc = new CRC32();
+        // The zlib stream ends the entry, so reading stops at its own last byte
+        try (InputStream in = new CheckedInputStream(new DecompressingInputStream(Channels.newInputStream(channel)), crc)) {
+            channel.position(entry.offset);
+            long size = in.transferTo(out);
+            if (size != entry.size || (int) crc.getValue() != entry.crc) {
+                throw new ZipException("Entry " + entry.name + " is corrupt");
+            }
+        }
+    }
+
+    private static List<Entry> readDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+            throw new ZipException("Not a multi-entry archive");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, fileSize - TRAILER_SIZE);
+        if (trailer.getInt(12) != TRAILER_MAGIC) {
+            throw new ZipException("Not a multi-entry archive");
+        }
+        long directoryOffset = trailer.getLong(0);
+        int count = trailer.getInt(8);
+        if (count < 0 || directoryOffset < HEADER_SIZE || directoryOffset > fileSize - TRAILER_SIZE) {
+            throw new ZipException("Corrupt central directory");
+        }
+        byte[] directory = new byte[(int) (fileSize - TRAILER_SIZE - directoryOffset)];
+        readFully(channel, ByteBuffer.wrap(directory), directoryOffset);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(directory));
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt()));
+        }
+        return entries;
+    }
+
+    private static Compressed take(CompletionService<Compressed> completion) throws IOException {
+        try {
+            return get(completion.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packing", e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
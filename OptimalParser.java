@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+// Price-based optimal parse for the LZ77 token format (3-byte offset, 2-byte
+// length, next byte). The input is parsed in chunks of CHUNK_SIZE positions so
+// memory stays bounded: matches are found once for every position of a chunk,
+// and a backward dynamic programming pass then picks, from the end of the chunk
+// towards the start, the token at each position that minimises the total price
+// of everything after it. Each position keeps the closest match of every length
+// the chain reaches, so a shorter match can take a nearer, cheaper offset than
+// the longest one. Prices are code lengths per token field, as the entropy
+// stage codes offset, length and literal bytes from their own histograms: the
+// first chunk starts from 8 bits per byte, each refinement pass re-prices with
+// the code lengths that the previous parse would get, and later chunks start
+// from the prices the chunk before them ended with.
+public class OptimalParser {
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int MAX_CANDIDATES = 4;
+    // Bytes that never occurred in the previous parse get a long code
+    private static final int UNSEEN_BYTE_BITS = CanonicalHuffman.MAX_CODE_LENGTH + 1;
+
+    private final byte[] input;
+    private final MatchFinder matchFinder;
+    // Up to MAX_CANDIDATES matches per position, longest last
+    private final int[] matchLength;
+    private final int[] matchOffset;
+    private final int[] matchCount;
+    private final int[] choice;
+    private final int[] choiceOffset;
+    private final long[] cost;
+    // Current chunk is input[start, end)
+    private int start;
+    private int end;
+
+    public OptimalParser(byte[] input, MatchFinder matchFinder) {
+        this.input = input;
+        this.matchFinder = matchFinder;
+        int chunk = Math.min(CHUNK_SIZE, input.length);
+        this.matchLength = new int[chunk * MAX_CANDIDATES];
+        this.matchOffset = new int[chunk * MAX_CANDIDATES];
+        this.matchCount = new int[chunk];
+        this.choice = new int[chunk];
+        this.choiceOffset = new int[chunk];
+        this.cost = new long[chunk + 1];
+    }
+
+    public void parse(int refinements, TokenBuffer tokens) {
+        int[][] fieldBits = new int[TokenBuffer.TOKEN_SIZE][CanonicalHuffman.SYMBOLS];
+        for (int[] bits : fieldBits) {
+            Arrays.fill(bits, 8);
+        }
+        matchFinder.reset(input, input.length);
+        for (start = 0; start < input.length; start = end) {
+            end = Math.min(start + CHUNK_SIZE, input.length);
+            findMatches();
+            price(fieldBits);
+            for (int i = 0; i < refinements; i++) {
+                int[][] frequency = fieldFrequency();
+                for (int field = 0; field < TokenBuffer.TOKEN_SIZE; field++) {
+                    int[] lengths = CanonicalHuffman.codeLengths(frequency[field]);
+                    for (int b = 0; b < lengths.length; b++) {
+                        fieldBits[field][b] = lengths[b] == 0 ? UNSEEN_BYTE_BITS : lengths[b];
+                    }
+                }
+                price(fieldBits);
+            }
+
+            for (int pos = start; pos < end; ) {
+                int len = choice[pos - start];
+                tokens.add(len == 0 ? 0 : choiceOffset[pos - start], len, input[pos + len]);
+                pos += len + 1;
+            }
+        }
+    }
+
+    private void findMatches() {
+        int[] lengths = new int[MAX_CANDIDATES];
+        int[] offsets = new int[MAX_CANDIDATES];
+        for (int pos = start; pos < end; pos++) {
+            int i = pos - start;
+            // Keep matches inside the chunk, leaving room for the literal that follows
+            int count = matchFinder.findMatches(pos, end - 1, lengths, offsets);
+            System.arraycopy(lengths, 0, matchLength, i * MAX_CANDIDATES, count);
+            System.arraycopy(offsets, 0, matchOffset, i * MAX_CANDIDATES, count);
+            matchCount[i] = count;
+            matchFinder.insert(pos);
+        }
+    }
+
+    // Backward pass: cost[i] is the cheapest price of encoding input[start + i, end)
+    private void price(int[][] fieldBits) {
+        int[] offsetHigh = fieldBits[0];
+        int[] offsetMiddle = fieldBits[1];
+        int[] offsetLow = fieldBits[2];
+        int[] literalBits = fieldBits[5];
+        int literalPrefix = offsetHigh[0] + offsetMiddle[0] + offsetLow[0] + fieldBits[3][0] + fieldBits[4][0];
+        int[] lengthBits = new int[Main.MAX_MATCH_LENGTH + 1];
+        for (int len = MatchFinder.MIN_MATCH; len < lengthBits.length; len++) {
+            lengthBits[len] = fieldBits[3][len >>> 8] + fieldBits[4][len & 0xFF];
+        }
+
+        int count = end - start;
+        cost[count] = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int pos = start + i;
+            long best = literalPrefix + literalBits[input[pos] & 0xFF] + cost[i + 1];
+            int bestLength = 0;
+            int bestOffset = 0;
+            // Lengths up to a candidate's own that a closer candidate cannot reach
+            // take that candidate's offset
+            int len = MatchFinder.MIN_MATCH;
+            for (int k = i * MAX_CANDIDATES, last = k + matchCount[i]; k < last; k++) {
+                int offset = matchOffset[k];
+                int offsetBits = offsetHigh[offset >>> 16] + offsetMiddle[(offset >>> 8) & 0xFF] + offsetLow[offset & 0xFF];
+                for (int longest = matchLength[k]; len <= longest; len++) {
+                    long price = offsetBits + lengthBits[len] + literalBits[input[pos + len] & 0xFF] + cost[i + len + 1];
+                    if (price < best) {
+                        best = price;
+                        bestLength = len;
+                        bestOffset = offset;
+                    }
+                }
+            }
+            cost[i] = best;
+            choice[i] = bestLength;
+            choiceOffset[i] = bestOffset;
+        }
+    }
+
+    // Per-field byte histograms of the encoded tokens the current choices would produce
+    private int[][] fieldFrequency() {
+        int[][] frequency = new int[TokenBuffer.TOKEN_SIZE][CanonicalHuffman.SYMBOLS];
+        for (int i = 0; i < end - start; ) {
+            int len = choice[i];
+            int offset = choiceOffset[i];
+            frequency[0][offset >>> 16]++;
+            frequency[1][(offset >>> 8) & 0xFF]++;
+            frequency[2][offset & 0xFF]++;
+            frequency[3][len >>> 8]++;
+            frequency[4][len & 0xFF]++;
+            frequency[5][input[start + i + len] & 0xFF]++;
+            i += len + 1;
+        }
+        return frequency;
+    }
+}
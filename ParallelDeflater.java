@@ -0,0 +1,190 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+// pigz-style block-parallel Deflate. Input is cut into fixed-size blocks that
+// are compressed as raw Deflate on a ForkJoinPool, each primed with the last
+// 32 KiB of the block before it. Every block but the last ends on a sync flush,
+// so the blocks concatenate into one zlib stream that Inflater and zlib tools
+// read as usual.
+public class ParallelDeflater {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    public static final int MIN_BLOCK_SIZE = 64 * 1024;
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+    private final Adler32 checksum = new Adler32();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] previous;
+    private int previousLength;
+    private boolean headerWritten;
+    private boolean finished;
+
+    public ParallelDeflater(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public ParallelDeflater(OutputStream out, int level, int blockSize, ForkJoinPool pool) {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least 64 KiB: " + blockSize);
+        }
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.pool = pool;
+        // Enough queued blocks to keep every worker busy while the head is written
+        this.maxInFlight = 2 * pool.getParallelism();
+        this.block = new byte[blockSize];
+    }
+
+    public static byte[] compress(byte[] input) {
+        return compress(input, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public static byte[] compress(byte[] input, int level, int blockSize, ForkJoinPool pool) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length / 2 + 64);
+        try {
+            ParallelDeflater deflater = new ParallelDeflater(outputStream, level, blockSize, pool);
+            deflater.write(input, 0, input.length);
+            deflater.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw
+        }
+        return outputStream.toByteArray();
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Deflater already finished");
+        }
+        while (len > 0) {
+            // A full block is only submitted once more data arrives, so the
+            // last block is always the one marked final
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+            int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    public void write(ByteBuffer src) throws IOException {
+        if (finished) {
+            throw new IOException("Deflater already finished");
+        }
+        while (src.hasRemaining()) {
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+            int count = Math.min(src.remaining(), blockSize - blockLength);
+            src.get(block, blockLength, count);
+            blockLength += count;
+        }
+    }
+
+    // Compresses the remaining input and writes the Adler-32 trailer
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        submit(true);
+        while (!pending.isEmpty()) {
+            writeHead();
+        }
+        int adler = (int) checksum.getValue();
+        out.write(adler >>> 24);
+        out.write(adler >>> 16);
+        out.write(adler >>> 8);
+        out.write(adler);
+        finished = true;
+    }
+
+    private void submit(boolean last) throws IOException {
+        if (!headerWritten) {
+            out.write(0x78);
+            out.write(headerFlags(level));
+            headerWritten = true;
+        }
+        checksum.update(block, 0, blockLength);
+
+        byte[] data = block;
+        int length = blockLength;
+        byte[] dictionary = previous;
+        int dictionaryLength = previousLength;
+        pending.addLast(pool.submit(() -> deflateBlock(data, length, dictionary, dictionaryLength, level, last)));
+
+        previous = data;
+        previousLength = length;
+        block = last ? null : new byte[blockSize];
+        blockLength = 0;
+        while (pending.size() > maxInFlight) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        out.write(pending.removeFirst().join());
+    }
+
+    private static byte[] deflateBlock(byte[] data, int length, byte[] dictionary, int dictionaryLength,
+            int level, boolean last) {
+        StageEvent event = Metrics.begin();
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int size = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - size, size);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    outputStream.write(buffer, 0, count);
+                }
+            } else {
+                // SYNC_FLUSH has completed once deflate leaves room in the buffer
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    outputStream.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            Metrics.end(event, Metrics.Stage.DEFLATE, length, outputStream.size());
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Second zlib header byte (FLEVEL plus FCHECK) for a Deflater level
+    private static int headerFlags(int level) {
+        if (level == 1 || level == 0) {
+            return 0x01;
+        } else if (level >= 2 && level <= 5) {
+            return 0x5E;
+        } else if (level >= 7) {
+            return 0xDA;
+        }
+        return 0x9C;
+    }
+}
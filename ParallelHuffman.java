@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Data-parallel Huffman coding for large blocks. The input is cut into
+// CHUNK_SIZE chunks that are counted into separate histograms on a ForkJoinPool.
+// Each chunk's encoded size then follows from its own histogram and the code
+// lengths of the whole block, so a prefix sum over the chunks gives the bit
+// offset where every chunk starts, and all chunks encode into the one output
+// array at once. Neighbouring chunks can share a byte; the earlier chunk
+// leaves that byte to the later one and its own bits are OR-ed in after the join.
+public final class ParallelHuffman {
+    // A full TokenBuffer block of encoded tokens is four chunks
+    public static final int CHUNK_SIZE = TokenBuffer.DEFAULT_CAPACITY * TokenBuffer.TOKEN_SIZE / 4;
+    // Smaller inputs are coded on the calling thread
+    public static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+
+    private ParallelHuffman() {
+    }
+
+    // One histogram per CHUNK_SIZE chunk of data[offset, offset + length)
+    public static int[][] chunkFrequencies(byte[] data, int offset, int length, ForkJoinPool pool) {
+        int chunks = Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        List<ForkJoinTask<int[]>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int start = offset + c * CHUNK_SIZE;
+            int count = Math.min(CHUNK_SIZE, offset + length - start);
+            tasks.add(pool.submit(() -> {
+                int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+                Main.addFrequency(data, start, count, frequency);
+                return frequency;
+            }));
+        }
+        int[][] frequencies = new int[chunks][];
+        for (int c = 0; c < chunks; c++) {
+            frequencies[c] = tasks.get(c).join();
+        }
+        return frequencies;
+    }
+
+    // Same output as CanonicalHuffman.encode; chunkFrequencies must come from
+    // chunkFrequencies over the same range. Returns the end offset.
+    public static int encode(byte[] data, int offset, int length, int[][] chunkFrequencies, int[] codes, int[] lengths,
+            byte[] out, int outOffset, ForkJoinPool pool) {
+        int chunks = chunkFrequencies.length;
+        long[] startBit = new long[chunks + 1];
+        startBit[0] = 8L * outOffset;
+        for (int c = 0; c < chunks; c++) {
+            startBit[c + 1] = startBit[c] + CanonicalHuffman.encodedBits(chunkFrequencies[c], lengths);
+        }
+
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int start = offset + c * CHUNK_SIZE;
+            int end = Math.min(start + CHUNK_SIZE, offset + length);
+            long bit = startBit[c];
+            tasks.add(pool.submit(() -> encodeChunk(data, start, end, codes, lengths, out, bit)));
+        }
+        int[] partial = new int[chunks];
+        for (int c = 0; c < chunks; c++) {
+            partial[c] = tasks.get(c).join();
+        }
+        // Only after every chunk is done, since the next chunk also writes this byte
+        for (int c = 0; c < chunks; c++) {
+            if (partial[c] != 0) {
+                out[(int) (startBit[c + 1] >>> 3)] |= (byte) partial[c];
+            }
+        }
+        return (int) ((startBit[chunks] + 7) >>> 3);
+    }
+
+    // Writes the whole bytes of the chunk's codes from startBit on and returns the
+    // bits that fall into the byte the next chunk starts in
+    private static int encodeChunk(byte[] data, int from, int to, int[] codes, int[] lengths, byte[] out, long startBit) {
+        BitWriter writer = new BitWriter(out, (int) (startBit >>> 3));
+        // Leading zeros stand in for the previous chunk's bits in the shared byte
+        writer.writeBits(0, (int) (startBit & 7));
+        for (int i = from; i < to; i++) {
+            int symbol = data[i] & 0xFF;
+            writer.writeBits(codes[symbol], lengths[symbol]);
+        }
+        writer.flushBytes();
+        return writer.partialByte();
+    }
+}
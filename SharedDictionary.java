@@ -0,0 +1,240 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Preset dictionaries for zlib streams of small documents. A dictionary is
+// primed into Deflater and Inflater before the data, so even a 2 KiB page can
+// refer back to markup that every page shares.
+//
+// Training follows the COVER idea: count in how many samples each 8-byte
+// substring occurs, split the samples into one epoch per dictionary segment,
+// and take from every epoch the segment whose substrings cover the most
+// samples. Substrings of a chosen segment score nothing afterwards, so the
+// segments do not repeat each other. The best segments go last, where they are
+// closest to the data and cheapest to reference.
+//
+// A dictionary's id is its Adler-32, which zlib writes into the header of a
+// stream compressed with it (FDICT). Loaded dictionaries are cached by path and
+// by id, so decompression finds the dictionary a stream asks for.
+public final class SharedDictionary {
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private static final int KMER = 8;
+    private static final int SEGMENT_SIZE = 256;
+    private static final int HASH_BITS = 20;
+    // Samples beyond this total are not read
+    private static final long MAX_SAMPLE_BYTES = 64L * 1024 * 1024;
+
+    private static final ConcurrentHashMap<Path, byte[]> BY_PATH = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, byte[]> BY_ID = new ConcurrentHashMap<>();
+
+    private SharedDictionary() {
+    }
+
+    // Reads the regular files under directory, in path order, as training samples
+    public static List<byte[]> readSamples(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        List<byte[]> samples = new ArrayList<>();
+        long total = 0;
+        for (Path file : files) {
+            if (total >= MAX_SAMPLE_BYTES) {
+                break;
+            }
+            byte[] sample = Files.readAllBytes(file);
+            samples.add(sample);
+            total += sample.length;
+        }
+        return samples;
+    }
+
+    public static byte[] train(List<byte[]> samples, int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_SIZE + ": " + size);
+        }
+        long total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        if (total <= size) {
+            // Everything fits: the samples themselves are the best dictionary
+            byte[] dictionary = new byte[(int) total];
+            int position = 0;
+            for (byte[] sample : samples) {
+                System.arraycopy(sample, 0, dictionary, position, sample.length);
+                position += sample.length;
+            }
+            return dictionary;
+        }
+
+        // Number of samples each substring occurs in
+        int[] coverage = new int[1 << HASH_BITS];
+        int[] lastSample = new int[1 << HASH_BITS];
+        Arrays.fill(lastSample, -1);
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + KMER <= sample.length; i++) {
+                int h = hash(sample, i);
+                if (lastSample[h] != s) {
+                    lastSample[h] = s;
+                    coverage[h]++;
+                }
+            }
+        }
+
+        int segments = (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        long epochSize = Math.max(SEGMENT_SIZE, total / segments);
+        List<long[]> chosen = new ArrayList<>(); // score, sample, offset
+        int sampleIndex = 0;
+        int sampleOffset = 0;
+        for (int e = 0; e < segments && sampleIndex < samples.size(); e++) {
+            // Best segment among those starting in the next epochSize bytes of samples
+            long bestScore = 0;
+            int bestSample = -1;
+            int bestOffset = 0;
+            long remaining = epochSize;
+            while (remaining > 0 && sampleIndex < samples.size()) {
+                byte[] sample = samples.get(sampleIndex);
+                int end = (int) Math.min(sample.length, sampleOffset + remaining);
+                long score = 0;
+                int windowKmers = SEGMENT_SIZE - KMER + 1;
+                for (int i = sampleOffset; i + KMER <= sample.length && i < end + windowKmers; i++) {
+                    score += coverage[hash(sample, i)];
+                    int first = i - windowKmers + 1;
+                    if (first > sampleOffset) {
+                        score -= coverage[hash(sample, first - 1)];
+                    }
+                    // A sample shorter than a segment is one candidate of its own
+                    int start = Math.max(first, sampleOffset);
+                    boolean whole = first >= sampleOffset || i + KMER == sample.length;
+                    if (whole && start < end && score > bestScore) {
+                        bestScore = score;
+                        bestSample = sampleIndex;
+                        bestOffset = start;
+                    }
+                }
+                remaining -= end - sampleOffset;
+                sampleOffset = end;
+                if (sampleOffset >= sample.length) {
+                    sampleIndex++;
+                    sampleOffset = 0;
+                }
+            }
+            if (bestSample >= 0) {
+                byte[] sample = samples.get(bestSample);
+                int end = Math.min(sample.length, bestOffset + SEGMENT_SIZE);
+                for (int i = bestOffset; i + KMER <= end; i++) {
+                    coverage[hash(sample, i)] = 0;
+                }
+                chosen.add(new long[] { bestScore, bestSample, bestOffset });
+            }
+        }
+
+        // Fill from the end with the best segments first
+        chosen.sort((a, b) -> Long.compare(b[0], a[0]));
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (long[] segment : chosen) {
+            byte[] sample = samples.get((int) segment[1]);
+            int length = Math.min(Math.min(SEGMENT_SIZE, sample.length - (int) segment[2]), position);
+            position -= length;
+            System.arraycopy(sample, (int) segment[2], dictionary, position, length);
+            if (position == 0) {
+                break;
+            }
+        }
+        return position == 0 ? dictionary : Arrays.copyOfRange(dictionary, position, size);
+    }
+
+    // zlib's dictionary id
+    public static int id(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+    public static String idString(int id) {
+        return String.format("%08x", id);
+    }
+
+    // Reads the dictionary at path, or returns it from the cache if it was loaded before
+    public static byte[] load(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        byte[] dictionary = BY_PATH.get(key);
+        if (dictionary == null) {
+            dictionary = Files.readAllBytes(key);
+            if (dictionary.length == 0 || dictionary.length > MAX_SIZE) {
+                throw new IOException("Not a dictionary: " + path);
+            }
+            byte[] previous = BY_PATH.putIfAbsent(key, dictionary);
+            if (previous != null) {
+                dictionary = previous;
+            }
+            register(dictionary);
+        }
+        return dictionary;
+    }
+
+    public static void register(byte[] dictionary) {
+        BY_ID.putIfAbsent(id(dictionary), dictionary);
+    }
+
+    // A loaded dictionary with the given id, or null
+    public static byte[] forId(int id) {
+        return BY_ID.get(id);
+    }
+
+    // The dictionary an Inflater that needsDictionary() asks for
+    static byte[] required(Inflater inflater) throws ZipException {
+        int id = inflater.getAdler();
+        byte[] dictionary = forId(id);
+        if (dictionary == null) {
+            throw new ZipException("Stream requires dictionary " + idString(id) + ", which is not loaded");
+        }
+        return dictionary;
+    }
+
+    // Id of the dictionary the zlib stream in the file was compressed with, or
+    // null if it is not a zlib stream or needs no dictionary. In a checked
+    // stream the zlib stream follows the BlockChecksums header.
+    public static Integer requiredId(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            int header = in.readInt();
+            if (header == BlockChecksums.HEADER_MAGIC) {
+                in.readUnsignedByte();
+                if (in.readUnsignedByte() != CompressingOutputStream.Mode.DEFLATE.ordinal()) {
+                    return null;
+                }
+                header = in.readInt();
+            }
+            int cmf = header >>> 24;
+            int flg = (header >>> 16) & 0xFF;
+            boolean zlib = (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            // The id is the 4 bytes after CMF and FLG, half of it already read
+            return zlib && (flg & 0x20) != 0 ? (header << 16) | in.readUnsignedShort() : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int hash(byte[] data, int offset) {
+        long key = 0;
+        for (int i = 0; i < KMER; i++) {
+            key = (key << 8) | (data[offset + i] & 0xFF);
+        }
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+    }
+}
@@ -0,0 +1,27 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// One codec stage (LZ77 parse, Huffman encode, Deflate, I/O, ...) as a JFR
+// event; the duration comes from begin/end in Metrics.
+@Name("comprizip.Stage")
+@Label("Compression Stage")
+@Category("CompriZip")
+@Description("Time and bytes for one stage of compression or decompression")
+public class StageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    // Not recorded; feeds the MBean counters
+    transient long startNanos;
+}
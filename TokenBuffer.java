@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+// Fixed-size block of LZ77 tokens held in parallel primitive arrays, with a
+// histogram of each byte of their encoded form kept up to date as tokens are
+// added, so the entropy stage can code every field on its own. When
+// the block fills it is handed to the sink (the Huffman stage) and reused, so
+// memory stays bounded by one block however large the input is.
+//
+// Encoded token: 3-byte offset, 2-byte length, next byte; a literal is a token
+// with offset and length 0.
+public class TokenBuffer {
+    public static final int TOKEN_SIZE = 6;
+    public static final int DEFAULT_CAPACITY = 32 * 1024;
+
+    public interface Sink {
+        void accept(TokenBuffer tokens);
+    }
+
+    private final int[] offsets;
+    private final short[] lengths;
+    private final byte[] literals;
+    // Field f of the encoded token counts at [f * SYMBOLS, (f + 1) * SYMBOLS)
+    private final int[] fieldFrequency = new int[TOKEN_SIZE * CanonicalHuffman.SYMBOLS];
+    private final Sink sink;
+    private int size;
+    private int inputLength;
+    private long total;
+
+    public TokenBuffer(Sink sink) {
+        this(DEFAULT_CAPACITY, sink);
+    }
+
+    public TokenBuffer(int capacity, Sink sink) {
+        this.offsets = new int[capacity];
+        this.lengths = new short[capacity];
+        this.literals = new byte[capacity];
+        this.sink = sink;
+    }
+
+    public void addLiteral(byte literal) {
+        add(0, 0, literal);
+    }
+
+    public void add(int offset, int length, byte literal) {
+        offsets[size] = offset;
+        lengths[size] = (short) length;
+        literals[size] = literal;
+        inputLength += length + 1;
+        fieldFrequency[offset >>> 16]++;
+        fieldFrequency[0x100 | ((offset >>> 8) & 0xFF)]++;
+        fieldFrequency[0x200 | (offset & 0xFF)]++;
+        fieldFrequency[0x300 | (length >>> 8)]++;
+        fieldFrequency[0x400 | (length & 0xFF)]++;
+        fieldFrequency[0x500 | (literal & 0xFF)]++;
+        if (++size == offsets.length) {
+            flush();
+        }
+    }
+
+    // Hands any buffered tokens to the sink and starts a new block
+    public void flush() {
+        if (size > 0) {
+            sink.accept(this);
+            total += size;
+            size = 0;
+            inputLength = 0;
+            Arrays.fill(fieldFrequency, 0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Number of input bytes the buffered tokens stand for
+    public int inputLength() {
+        return inputLength;
+    }
+
+    // Tokens produced so far, including those already flushed
+    public long totalTokens() {
+        return total + size;
+    }
+
+    public int capacity() {
+        return offsets.length;
+    }
+
+    // Byte histogram of the encoded form of the buffered tokens
+    public int[] frequency() {
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        for (int i = 0; i < fieldFrequency.length; i++) {
+            frequency[i & 0xFF] += fieldFrequency[i];
+        }
+        return frequency;
+    }
+
+    // Byte histogram of one field of the encoded tokens, 0 to TOKEN_SIZE - 1 in encoded order
+    public int[] frequency(int field) {
+        int from = field * CanonicalHuffman.SYMBOLS;
+        return Arrays.copyOfRange(fieldFrequency, from, from + CanonicalHuffman.SYMBOLS);
+    }
+
+    // Writes the buffered tokens in encoded form to out at offset and returns the end offset
+    public int encode(byte[] out, int offset) {
+        for (int i = 0; i < size; i++) {
+            int tokenOffset = offsets[i];
+            int length = lengths[i] & 0xFFFF;
+            out[offset] = (byte) (tokenOffset >>> 16);
+            out[offset + 1] = (byte) (tokenOffset >>> 8);
+            out[offset + 2] = (byte) tokenOffset;
+            out[offset + 3] = (byte) (length >>> 8);
+            out[offset + 4] = (byte) length;
+            out[offset + 5] = literals[i];
+            offset += TOKEN_SIZE;
+        }
+        return offset;
+    }
+}
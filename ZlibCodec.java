@@ -0,0 +1,252 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// One-shot zlib compression for callers that hold whole buffers, such as a
+// request path. Deflaters and Inflaters are borrowed from a pool shared by all
+// threads and reset when returned, instead of allocating native zlib state every
+// call, so every method is safe to call concurrently. The pool keeps at most one
+// idle instance of each per core: borrowing from an empty pool makes a new one,
+// and one returned to a full pool is ended at once, so short-lived threads such
+// as the batch mode's virtual threads never leave native state for the GC.
+// Streams that need a preset dictionary are given it from the loaded
+// SharedDictionary instances. Output goes straight into the caller's array or
+// ByteBuffer (heap or direct); failures surface as ZipException.
+public final class ZlibCodec {
+    // The largest array most VMs will allocate, as in jdk.internal.util.ArraysSupport
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ZlibCodec() {
+    }
+
+    // Upper bound on compressed size, as zlib's compressBound
+    public static int maxCompressedLength(int length) {
+        long bound = (long) length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        if (bound > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Input too large: " + length);
+        }
+        return (int) bound;
+    }
+
+    public static byte[] compress(byte[] input) throws ZipException {
+        return compress(input, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public static byte[] compress(byte[] input, int level) throws ZipException {
+        return compress(input, level, null);
+    }
+
+    // With a SharedDictionary the stream records its id, and decompress finds the
+    // dictionary again once it has been loaded
+    public static byte[] compress(byte[] input, int level, byte[] dictionary) throws ZipException {
+        byte[] output = new byte[maxCompressedLength(input.length)];
+        int length = compress(input, 0, input.length, output, 0, level, dictionary);
+        return Arrays.copyOf(output, length);
+    }
+
+    // Compresses input[offset, offset + length) into output at outOffset and returns
+    // the compressed length. maxCompressedLength(length) bytes of room always suffice.
+    public static int compress(byte[] input, int offset, int length, byte[] output, int outOffset, int level) throws ZipException {
+        return compress(input, offset, length, output, outOffset, level, null);
+    }
+
+    public static int compress(byte[] input, int offset, int length, byte[] output, int outOffset, int level,
+            byte[] dictionary) throws ZipException {
+        StageEvent event = Metrics.begin();
+        Deflater deflater = deflater(level);
+        int position = outOffset;
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position == output.length) {
+                    throw new ZipException("Output buffer too small");
+                }
+                position += deflater.deflate(output, position, output.length - position);
+            }
+        } finally {
+            release(deflater);
+        }
+        Metrics.end(event, Metrics.Stage.DEFLATE, length, position - outOffset);
+        return position - outOffset;
+    }
+
+    // Compresses in.remaining() bytes into out, advancing both positions
+    public static void compress(ByteBuffer in, ByteBuffer out) throws ZipException {
+        compress(in, out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public static void compress(ByteBuffer in, ByteBuffer out, int level) throws ZipException {
+        StageEvent event = Metrics.begin();
+        int inStart = in.position();
+        int outStart = out.position();
+        Deflater deflater = deflater(level);
+        try {
+            deflater.setInput(in);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!out.hasRemaining()) {
+                    throw new ZipException("Output buffer too small");
+                }
+                deflater.deflate(out);
+            }
+        } finally {
+            release(deflater);
+        }
+        Metrics.end(event, Metrics.Stage.DEFLATE, in.position() - inStart, out.position() - outStart);
+    }
+
+    public static byte[] decompress(byte[] input) throws ZipException {
+        StageEvent event = Metrics.begin();
+        Inflater inflater = inflater();
+        byte[] output = new byte[Math.max(64, (int) Math.min(input.length * 4L, Integer.MAX_VALUE / 4))];
+        int position = 0;
+        try {
+            inflater.setInput(input);
+            while (!inflater.finished()) {
+                if (position == output.length) {
+                    output = Arrays.copyOf(output, grow(output.length));
+                }
+                int count = inflater.inflate(output, position, output.length - position);
+                if (count == 0) {
+                    checkProgress(inflater);
+                }
+                position += count;
+            }
+        } catch (DataFormatException | ZipException e) {
+            throw error(e);
+        } finally {
+            release(inflater);
+        }
+        Metrics.end(event, Metrics.Stage.INFLATE, input.length, position);
+        return position == output.length ? output : Arrays.copyOf(output, position);
+    }
+
+    // Decompresses one zlib stream from input[offset, offset + length) into output at
+    // outOffset and returns the decompressed length
+    public static int decompress(byte[] input, int offset, int length, byte[] output, int outOffset)
+            throws ZipException {
+        StageEvent event = Metrics.begin();
+        Inflater inflater = inflater();
+        int position = outOffset;
+        try {
+            inflater.setInput(input, offset, length);
+            while (!inflater.finished()) {
+                if (position == output.length) {
+                    // The last bytes may have filled the output before the trailer was read
+                    if (inflater.inflate(new byte[1]) != 0) {
+                        throw new ZipException("Output buffer too small");
+                    }
+                    checkProgress(inflater);
+                    continue;
+                }
+                int count = inflater.inflate(output, position, output.length - position);
+                if (count == 0) {
+                    checkProgress(inflater);
+                }
+                position += count;
+            }
+        } catch (DataFormatException | ZipException e) {
+            throw error(e);
+        } finally {
+            release(inflater);
+        }
+        Metrics.end(event, Metrics.Stage.INFLATE, length, position - outOffset);
+        return position - outOffset;
+    }
+
+    // Decompresses one zlib stream from in into out, advancing both positions
+    public static void decompress(ByteBuffer in, ByteBuffer out) throws ZipException {
+        StageEvent event = Metrics.begin();
+        int inStart = in.position();
+        int outStart = out.position();
+        Inflater inflater = inflater();
+        try {
+            inflater.setInput(in);
+            while (!inflater.finished()) {
+                if (!out.hasRemaining()) {
+                    if (inflater.inflate(new byte[1]) != 0) {
+                        throw new ZipException("Output buffer too small");
+                    }
+                    checkProgress(inflater);
+                    continue;
+                }
+                if (inflater.inflate(out) == 0) {
+                    checkProgress(inflater);
+                }
+            }
+        } catch (DataFormatException | ZipException e) {
+            throw error(e);
+        } finally {
+            release(inflater);
+        }
+        Metrics.end(event, Metrics.Stage.INFLATE, in.position() - inStart, out.position() - outStart);
+    }
+
+    // Doubles the output, clamped to the array limit
+    static int grow(int length) throws ZipException {
+        if (length >= MAX_ARRAY_LENGTH) {
+            throw new ZipException("Decompressed data exceeds " + MAX_ARRAY_LENGTH + " bytes");
+        }
+        return (int) Math.min((long) length * 2, MAX_ARRAY_LENGTH);
+    }
+
+    private static Deflater deflater(int level) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    private static Inflater inflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    // Reset before pooling, which also drops the reference to the caller's input
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static ZipException error(Exception e) {
+        Metrics.error(Metrics.Stage.INFLATE);
+        return e instanceof ZipException ? (ZipException) e : new ZipException(e.getMessage());
+    }
+
+    // Called when inflate made no progress on an unfinished stream
+    private static void checkProgress(Inflater inflater) throws ZipException {
+        if (inflater.finished()) {
+            return;
+        }
+        if (inflater.needsDictionary()) {
+            inflater.setDictionary(SharedDictionary.required(inflater));
+            return;
+        }
+        if (inflater.needsInput()) {
+            throw new ZipException("Unexpected end of compressed stream");
+        }
+    }
+}
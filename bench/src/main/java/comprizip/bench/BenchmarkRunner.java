@@ -0,0 +1,88 @@
+package comprizip.bench;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar: prints compression ratios for the corpus, runs
+// the JMH benchmarks with the GC profiler (any JMH options may be passed), and
+// fails when Huffman decoding falls below its speed target.
+public class BenchmarkRunner {
+    // Floor for huffmanDecompress on the text corpus, in MB/s of decoded output
+    static final double HUFFMAN_DECODE_TARGET_MB_PER_SECOND = 100.0;
+
+    private static final int[] RATIO_SIZES = { 65536, 1048576 };
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        printRatios();
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(CodecBenchmark.class.getSimpleName());
+        }
+        Options options = builder.build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        boolean belowTarget = false;
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            if (!benchmark.endsWith(".huffmanDecompress") || !"text".equals(result.getParams().getParam("corpus"))) {
+                continue;
+            }
+            Result<?> bytes = result.getSecondaryResults().get("bytes");
+            double mbPerSecond = bytes.getScore() / (1024 * 1024);
+            boolean ok = mbPerSecond >= HUFFMAN_DECODE_TARGET_MB_PER_SECOND;
+            System.out.printf("huffmanDecompress text/%s: %.1f MB/s (target %.0f MB/s) %s%n",
+                    result.getParams().getParam("size"), mbPerSecond, HUFFMAN_DECODE_TARGET_MB_PER_SECOND,
+                    ok ? "OK" : "BELOW TARGET");
+            belowTarget |= !ok;
+        }
+        if (belowTarget) {
+            System.exit(1);
+        }
+    }
+
+    private static void printRatios() {
+        System.out.printf("%-12s %9s %12s %12s %12s %12s %12s%n", "corpus", "size", "huffman", "fse", "lz77+huff",
+                "deflate", "decomp-lz");
+        for (String corpus : Corpus.NAMES) {
+            for (int size : RATIO_SIZES) {
+                byte[] input = Corpus.generate(corpus, size);
+                byte[] huffman = Codecs.huffmanCompress(input);
+                byte[] fse = Codecs.fseCompress(input);
+                byte[] compressed = Codecs.compress(input);
+                byte[] deflated = Codecs.compressWithDeflater(input, false);
+                byte[] decomp = DecompEncoder.encode(input);
+                check(corpus, "huffman", input, Codecs.huffmanDecompress(huffman));
+                check(corpus, "fse", input, Codecs.huffmanDecompress(fse));
+                check(corpus, "lz77+huffman", input, Codecs.decompress(compressed));
+                check(corpus, "deflate", input, Codecs.inflate(deflated));
+                check(corpus, "decomp-lz", input, Codecs.lz77Decompression(decomp));
+                System.out.printf("%-12s %9d %12.3f %12.3f %12.3f %12.3f %12.3f%n", corpus, size, ratio(input, huffman),
+                        ratio(input, fse), ratio(input, compressed), ratio(input, deflated), ratio(input, decomp));
+            }
+        }
+        System.out.println();
+    }
+
+    private static double ratio(byte[] input, byte[] output) {
+        return (double) output.length / input.length;
+    }
+
+    private static void check(String corpus, String codec, byte[] expected, byte[] actual) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException(codec + " does not round-trip the " + corpus + " corpus");
+        }
+    }
+}
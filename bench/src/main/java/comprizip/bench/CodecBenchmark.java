@@ -0,0 +1,128 @@
+package comprizip.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of every codec path over the standard corpus. The "bytes" counter
+// reports uncompressed bytes per second; run with -prof gc for allocation rates.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "text", "html", "binary", "random", "repetitive" })
+    public String corpus;
+
+    @Param({ "65536", "1048576", "8388608" })
+    public int size;
+
+    byte[] input;
+    byte[] huffmanEncoded;
+    byte[] fseEncoded;
+    byte[] compressed;
+    byte[] deflated;
+    byte[] decompEncoded;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        input = Corpus.generate(corpus, size);
+        huffmanEncoded = Codecs.huffmanCompress(input);
+        fseEncoded = Codecs.fseCompress(input);
+        compressed = Codecs.compress(input);
+        deflated = Codecs.compressWithDeflater(input, false);
+        decompEncoded = DecompEncoder.encode(input);
+    }
+
+    @Benchmark
+    public int lz77Compress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.lz77Compress(input);
+    }
+
+    @Benchmark
+    public byte[] huffmanCompress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.huffmanCompress(input);
+    }
+
+    @Benchmark
+    public byte[] huffmanDecompress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.huffmanDecompress(huffmanEncoded);
+    }
+
+    @Benchmark
+    public byte[] fseCompress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.fseCompress(input);
+    }
+
+    @Benchmark
+    public byte[] fseDecompress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.huffmanDecompress(fseEncoded);
+    }
+
+    @Benchmark
+    public byte[] compress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.compress(input);
+    }
+
+    @Benchmark
+    public byte[] decompress(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.decompress(compressed);
+    }
+
+    @Benchmark
+    public byte[] compressWithDeflater(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.compressWithDeflater(input, false);
+    }
+
+    @Benchmark
+    public byte[] compressWithDeflaterParallel(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.compressWithDeflater(input, true);
+    }
+
+    @Benchmark
+    public byte[] inflate(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.inflate(deflated);
+    }
+
+    @Benchmark
+    public byte[] lz77Decompression(Bytes counter) {
+        counter.bytes += input.length;
+        return Codecs.lz77Decompression(decompEncoded);
+    }
+}
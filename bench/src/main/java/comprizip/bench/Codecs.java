@@ -0,0 +1,124 @@
+package comprizip.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+// The codecs live in the default package, which named packages cannot import,
+// so benchmarks reach its package-private entry points through constant method
+// handles; no private method is looked up. The JIT inlines static final
+// handles, so the indirection does not show up in the numbers.
+final class Codecs {
+    private static final MethodHandle LZ77_COMPRESS = find("Main", "lz77Compress", int.class, byte[].class);
+    private static final MethodHandle HUFFMAN_COMPRESS = find("Main", "huffmanCompress", byte[].class, byte[].class);
+    private static final MethodHandle HUFFMAN_DECOMPRESS = find("Main", "huffmanDecompress", byte[].class, byte[].class);
+    private static final MethodHandle FSE_COMPRESS = find("Main", "fseCompress", byte[].class, byte[].class);
+    private static final MethodHandle COMPRESS = find("Main", "compress", byte[].class, byte[].class);
+    private static final MethodHandle DECOMPRESS = find("Main", "decompress", byte[].class, byte[].class);
+    private static final MethodHandle COMPRESS_WITH_DEFLATER =
+            find("Main", "compressWithDeflater", byte[].class, byte[].class, boolean.class);
+    private static final MethodHandle INFLATE = find("Main", "inflate", byte[].class, byte[].class);
+    private static final MethodHandle LZ77_DECOMPRESSION = find("Decomp", "lz77Decompression", byte[].class, byte[].class);
+
+    private Codecs() {
+    }
+
+    // Tokens go to a discarding sink; returns how many were produced
+    static int lz77Compress(byte[] input) {
+        try {
+            return (int) LZ77_COMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] huffmanCompress(byte[] input) {
+        try {
+            return (byte[]) HUFFMAN_COMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] huffmanDecompress(byte[] input) {
+        try {
+            return (byte[]) HUFFMAN_DECOMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // FSE blocks decode through huffmanDecompress
+    static byte[] fseCompress(byte[] input) {
+        try {
+            return (byte[]) FSE_COMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] compress(byte[] input) {
+        try {
+            return (byte[]) COMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] decompress(byte[] input) {
+        try {
+            return (byte[]) DECOMPRESS.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] compressWithDeflater(byte[] input, boolean parallel) {
+        try {
+            return (byte[]) COMPRESS_WITH_DEFLATER.invokeExact(input, parallel);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] inflate(byte[] input) {
+        try {
+            return (byte[]) INFLATE.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static byte[] lz77Decompression(byte[] input) {
+        try {
+            return (byte[]) LZ77_DECOMPRESSION.invokeExact(input);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static MethodHandle find(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> owner = Class.forName(className);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+            MethodHandle handle = lookup.findStatic(owner, name, MethodType.methodType(returnType, parameterTypes));
+            if (Modifier.isPrivate(lookup.revealDirect(handle).getModifiers())) {
+                throw new IllegalAccessException(className + "." + name + " is private");
+            }
+            return handle;
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,93 @@
+package comprizip.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Standard benchmark inputs. Text and HTML repeat the sample files from the
+// repository root with small per-copy edits, so matches exist at every distance
+// but the data is not trivially periodic.
+final class Corpus {
+    static final String[] NAMES = { "text", "html", "binary", "random", "repetitive" };
+
+    private Corpus() {
+    }
+
+    static byte[] generate(String name, int size) {
+        Random random = new Random(0x5EED ^ size);
+        switch (name) {
+            case "text":
+                return tile(resource("/text.txt"), size, random);
+            case "html":
+                return tile(resource("/test1.html"), size, random);
+            case "binary":
+                return binary(size, random);
+            case "random": {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                return data;
+            }
+            case "repetitive": {
+                byte[] pattern = "ERROR connection reset by peer; retrying in 5s\n".getBytes(StandardCharsets.US_ASCII);
+                byte[] data = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    data[i] = pattern[i % pattern.length];
+                }
+                return data;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+    }
+
+    private static byte[] tile(byte[] sample, int size, Random random) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i += sample.length) {
+            System.arraycopy(sample, 0, data, i, Math.min(sample.length, size - i));
+            // Perturb a few bytes per copy
+            for (int j = 0; j < 4; j++) {
+                int position = i + random.nextInt(Math.min(sample.length, size - i));
+                data[position] = (byte) ('a' + random.nextInt(26));
+            }
+        }
+        return data;
+    }
+
+    // Fixed-width little-endian records with slowly changing fields, like a
+    // table dump or a log of sensor readings
+    private static byte[] binary(int size, Random random) {
+        byte[] data = new byte[size];
+        long timestamp = 1_700_000_000_000L;
+        int counter = 0;
+        for (int i = 0; i + 16 <= size; i += 16) {
+            timestamp += random.nextInt(1000);
+            counter += random.nextInt(4);
+            for (int b = 0; b < 8; b++) {
+                data[i + b] = (byte) (timestamp >>> (8 * b));
+            }
+            data[i + 8] = (byte) counter;
+            data[i + 9] = (byte) (counter >>> 8);
+            data[i + 10] = (byte) random.nextInt(4);
+            data[i + 11] = 0;
+            int value = (int) (random.nextGaussian() * 300);
+            data[i + 12] = (byte) value;
+            data[i + 13] = (byte) (value >>> 8);
+            data[i + 14] = (byte) (value >>> 16);
+            data[i + 15] = (byte) (value >>> 24);
+        }
+        return data;
+    }
+
+    private static byte[] resource(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing corpus resource " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
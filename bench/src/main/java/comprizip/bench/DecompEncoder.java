@@ -0,0 +1,62 @@
+package comprizip.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// Greedy encoder for the flag-group LZ77 format read by Decomp, which has no
+// encoder of its own: 4096-byte window, 12-bit offsets, lengths 3..18.
+final class DecompEncoder {
+    private static final int WINDOW_SIZE = 4096;
+    private static final int MIN_LENGTH = 3;
+    private static final int MAX_LENGTH = 18;
+    private static final int HASH_BITS = 14;
+
+    private DecompEncoder() {
+    }
+
+    static byte[] encode(byte[] input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length + input.length / 8 + 16);
+        byte[] group = new byte[1 + 8 * 2];
+        int[] head = new int[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+
+        int position = 0;
+        while (position < input.length) {
+            int flag = 0;
+            int groupLength = 1;
+            for (int item = 0; item < 8 && position < input.length; item++) {
+                int length = 0;
+                int distance = 0;
+                if (position + MIN_LENGTH <= input.length) {
+                    int hash = hash(input, position);
+                    int candidate = head[hash];
+                    head[hash] = position;
+                    if (candidate >= 0 && position - candidate <= WINDOW_SIZE) {
+                        int limit = Math.min(MAX_LENGTH, input.length - position);
+                        while (length < limit && input[candidate + length] == input[position + length]) {
+                            length++;
+                        }
+                        distance = position - candidate;
+                    }
+                }
+                if (length >= MIN_LENGTH) {
+                    int offset = distance == WINDOW_SIZE ? 0 : distance;
+                    group[groupLength++] = (byte) (offset >>> 4);
+                    group[groupLength++] = (byte) ((offset << 4) | (length - MIN_LENGTH));
+                    position += length;
+                } else {
+                    flag |= 1 << item;
+                    group[groupLength++] = input[position++];
+                }
+            }
+            group[0] = (byte) flag;
+            out.write(group, 0, groupLength);
+        }
+        return out.toByteArray();
+    }
+
+    private static int hash(byte[] data, int position) {
+        int key = ((data[position] & 0xFF) << 16) | ((data[position + 1] & 0xFF) << 8) | (data[position + 2] & 0xFF);
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class AsyncFilesTest {
+    private static final int BUFFER = AsyncFiles.BUFFER_SIZE;
+
+    @TempDir
+    Path dir;
+
+    // More buffers than the read-ahead depth, and sizes on either side of a buffer end
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, BUFFER - 1, BUFFER, BUFFER + 1, (AsyncFiles.DEPTH + 3) * BUFFER + 17})
+    void roundTrips(int length) throws IOException {
+        byte[] input = TestData.random(length, length);
+        Path file = dir.resolve("file");
+        try (OutputStream out = AsyncFiles.newOutputStream(file)) {
+            // Writes that straddle buffer ends
+            for (int position = 0; position < length; position += 100_003) {
+                out.write(input, position, Math.min(100_003, length - position));
+            }
+        }
+        assertArrayEquals(input, Files.readAllBytes(file));
+        try (InputStream in = AsyncFiles.newInputStream(file)) {
+            assertArrayEquals(input, in.readAllBytes());
+        }
+
+        ByteArrayOutputStream buffers = new ByteArrayOutputStream();
+        long size = AsyncFiles.forEachBuffer(file, buffer -> {
+            assertTrue(buffer.remaining() <= BUFFER);
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            buffers.write(bytes);
+        });
+        assertEquals(length, size);
+        assertArrayEquals(input, buffers.toByteArray());
+    }
+
+    @Test
+    void roundTripsSingleBytes() throws IOException {
+        byte[] input = TestData.text(BUFFER + 1000, 1);
+        Path file = dir.resolve("file");
+        try (OutputStream out = AsyncFiles.newOutputStream(file)) {
+            for (byte b : input) {
+                out.write(b);
+            }
+            out.flush();
+            assertEquals(input.length, Files.size(file));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = AsyncFiles.newInputStream(file)) {
+            for (int b; (b = in.read()) >= 0; ) {
+                output.write(b);
+            }
+        }
+        assertArrayEquals(input, output.toByteArray());
+    }
+
+    @Test
+    void truncatesExistingFiles() throws IOException {
+        Path file = Files.write(dir.resolve("file"), TestData.random(10_000, 2));
+        try (OutputStream out = AsyncFiles.newOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file));
+    }
+
+    @Test
+    void runsManyStreamsAtOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int task = 0; task < 32; task++) {
+                byte[] input = TestData.random(2 * BUFFER + task, task);
+                Path source = Files.write(dir.resolve("in" + task), input);
+                Path copy = dir.resolve("out" + task);
+                futures.add(executor.submit(() -> {
+                    try (InputStream in = AsyncFiles.newInputStream(source);
+                         OutputStream out = AsyncFiles.newOutputStream(copy)) {
+                        in.transferTo(out);
+                    }
+                    assertArrayEquals(input, Files.readAllBytes(copy));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // 64 streams at once share the bounded pool and give every buffer back
+        assertTrue(AsyncFiles.directBuffers() <= AsyncFiles.MAX_DIRECT_BUFFERS, AsyncFiles.directBuffers() + " buffers");
+        assertEquals(AsyncFiles.directBuffers(), AsyncFiles.pooledBuffers());
+    }
+
+    @Test
+    void reusesPooledBuffers() throws IOException {
+        Path file = Files.write(dir.resolve("file"), TestData.random(3 * BUFFER, 3));
+        for (int i = 0; i < 10; i++) {
+            try (InputStream in = AsyncFiles.newInputStream(file)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        int allocated = AsyncFiles.directBuffers();
+        for (int i = 0; i < 10; i++) {
+            try (InputStream in = AsyncFiles.newInputStream(file);
+                 OutputStream out = AsyncFiles.newOutputStream(dir.resolve("copy"))) {
+                in.transferTo(out);
+                // A second close must not hand the buffers back twice
+                out.close();
+            }
+        }
+        assertTrue(AsyncFiles.directBuffers() - allocated <= AsyncFiles.DEPTH + 1);
+        assertEquals(AsyncFiles.directBuffers(), AsyncFiles.pooledBuffers());
+    }
+}
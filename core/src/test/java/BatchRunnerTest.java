@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchRunnerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void runsJobsFromArgumentsAndManifest() throws IOException {
+        // Small files take the in-memory path, the large one streams
+        List<byte[]> inputs = List.of(TestData.text(10_000, 1), TestData.random(5_000, 2), new byte[0],
+                TestData.mixed(2 * 1024 * 1024, 3));
+        List<String> compress = new ArrayList<>(List.of("-q"));
+        StringBuilder manifest = new StringBuilder("# decompress everything\n\n");
+        for (int i = 0; i < inputs.size(); i++) {
+            Path source = Files.write(dir.resolve("in " + i), inputs.get(i));
+            compress.addAll(List.of("comp", source.toString(), dir.resolve("archive " + i).toString()));
+            manifest.append("decomp\t").append(dir.resolve("archive " + i)).append('\t').append(dir.resolve("out " + i)).append('\n');
+        }
+        assertEquals(0, BatchRunner.run(compress.toArray(new String[0])));
+        Path manifestFile = Files.writeString(dir.resolve("manifest"), manifest);
+        // Decompression waits for compression: jobs in one run are concurrent
+        assertEquals(0, BatchRunner.run(new String[] {"-q", "-m", manifestFile.toString()}));
+        for (int i = 0; i < inputs.size(); i++) {
+            assertArrayEquals(inputs.get(i), Files.readAllBytes(dir.resolve("out " + i)), "file " + i);
+        }
+    }
+
+    @Test
+    void compressesDirectories() throws IOException {
+        Path tree = Files.createDirectories(dir.resolve("tree"));
+        Files.write(tree.resolve("a"), TestData.text(10_000, 4));
+        Files.write(tree.resolve("b"), TestData.skewed(10_000, 5));
+        Path archive = dir.resolve("tree.cz");
+        assertEquals(0, BatchRunner.run(new String[] {"-q", "comp", tree.toString(), archive.toString()}));
+        Path target = dir.resolve("target");
+        assertEquals(0, BatchRunner.run(new String[] {"-q", "decomp", archive.toString(), target.toString()}));
+        assertArrayEquals(Files.readAllBytes(tree.resolve("a")), Files.readAllBytes(target.resolve("a")));
+        assertArrayEquals(Files.readAllBytes(tree.resolve("b")), Files.readAllBytes(target.resolve("b")));
+    }
+
+    @Test
+    void decompressesEveryArchiveFormat() throws IOException {
+        byte[] input = TestData.mixed(300_000, 7);
+        Path source = Files.write(dir.resolve("source"), input);
+        Path recipe = dir.resolve("dedup.czd");
+        ChunkStore.store(source, recipe, dir.resolve("store"), Main.DEFAULT_LEVEL);
+        Path longRange = dir.resolve("long.czl");
+        LongRangeArchive.compress(source, longRange, Main.DEFAULT_LEVEL);
+        Path seekable = dir.resolve("seekable.cz");
+        try (BlockArchive.Writer writer = new BlockArchive.Writer(Files.newOutputStream(seekable))) {
+            writer.write(input);
+        }
+        Path adaptive = Files.write(dir.resolve("adaptive.cz"),
+                CompressingStreamTest.compress(input, CompressingOutputStream.Mode.ADAPTIVE, false));
+
+        List<Path> archives = List.of(recipe, longRange, seekable, adaptive);
+        List<String> decompress = new ArrayList<>(List.of("-q"));
+        for (Path archive : archives) {
+            decompress.addAll(List.of("decomp", archive.toString(), archive + ".out"));
+        }
+        assertEquals(0, BatchRunner.run(decompress.toArray(new String[0])));
+        for (Path archive : archives) {
+            assertArrayEquals(input, Files.readAllBytes(Path.of(archive + ".out")), archive.toString());
+        }
+    }
+
+    @Test
+    void reportsFailures() throws IOException {
+        Path good = Files.write(dir.resolve("good"), TestData.text(1000, 6));
+        assertEquals(1, BatchRunner.run(new String[] {"-q", "comp", good.toString(), dir.resolve("good.cz").toString(),
+                "comp", dir.resolve("missing").toString(), dir.resolve("missing.cz").toString()}));
+        assertEquals(1, BatchRunner.run(new String[] {"-q", "pack", good.toString(), dir.resolve("x").toString()}));
+        assertEquals(2, BatchRunner.run(new String[] {"-q", "comp", good.toString()}));
+
+        // Small checked archives are verified in memory
+        TestData.flipByte(dir.resolve("good.cz"), Files.size(dir.resolve("good.cz")) - 20);
+        assertEquals(1, BatchRunner.run(new String[] {"-q", "decomp", dir.resolve("good.cz").toString(),
+                dir.resolve("restored").toString()}));
+        assertFalse(Files.exists(dir.resolve("restored")));
+    }
+}
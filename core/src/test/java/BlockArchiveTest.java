@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockArchiveTest {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private byte[] input;
+    private Path archive;
+
+    @BeforeEach
+    void writeArchive() throws IOException {
+        input = TestData.mixed(300 * 1024, 1);
+        archive = dir.resolve("seekable.cz");
+        try (BlockArchive.Writer writer = new BlockArchive.Writer(Files.newOutputStream(archive), BLOCK_SIZE, Main.DEFAULT_LEVEL)) {
+            writer.write(input);
+        }
+    }
+
+    @Test
+    void indexesEveryBlock() throws IOException {
+        assertTrue(BlockArchive.isBlockArchive(archive));
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(archive)) {
+            assertEquals(input.length, reader.size());
+            assertEquals(5, reader.blockCount());
+            for (int block = 0; block < reader.blockCount(); block++) {
+                int from = block * BLOCK_SIZE;
+                assertEquals(from, reader.blockOffset(block));
+                assertEquals(block, reader.blockAt(from));
+                assertArrayEquals(Arrays.copyOfRange(input, from, Math.min(input.length, from + BLOCK_SIZE)), reader.readBlock(block));
+            }
+            reader.verify(ForkJoinPool.commonPool());
+        }
+    }
+
+    @Test
+    void readsRangesAcrossBlocks() throws IOException {
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(archive)) {
+            long[][] ranges = {{0, 0}, {0, 1}, {100_000, 50_000}, {BLOCK_SIZE - 1, BLOCK_SIZE + 2}, {0, input.length},
+                    {input.length - 1, 1}};
+            for (long[] range : ranges) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                reader.readRange(range[0], range[1], out);
+                assertArrayEquals(Arrays.copyOfRange(input, (int) range[0], (int) (range[0] + range[1])), out.toByteArray());
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.readRange(input.length - 1, 2, new ByteArrayOutputStream()));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.readBlock(5));
+        }
+    }
+
+    @Test
+    void detectsCorruptBlock() throws IOException {
+        TestData.flipByte(archive, Files.size(archive) / 2);
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(archive)) {
+            assertThrows(IOException.class, () -> reader.verify(ForkJoinPool.commonPool()));
+            assertThrows(IOException.class, () -> reader.readRange(0, input.length, new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void extractsInParallel() throws IOException {
+        Path target = dir.resolve("target");
+        // Longer than the archive's content, so extraction has to truncate it
+        Files.write(target, new byte[2 * input.length]);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(archive)) {
+            reader.extractTo(target, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(input, Files.readAllBytes(target));
+
+        TestData.flipByte(archive, Files.size(archive) / 3);
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(archive)) {
+            assertThrows(IOException.class, () -> reader.extractTo(dir.resolve("corrupt"), ForkJoinPool.commonPool()));
+        }
+    }
+
+    @Test
+    void extractsEmptyArchives() throws IOException {
+        Path empty = dir.resolve("empty.cz");
+        new BlockArchive.Writer(Files.newOutputStream(empty), BLOCK_SIZE, Main.DEFAULT_LEVEL).close();
+        Path target = dir.resolve("target");
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(empty)) {
+            assertEquals(0, reader.blockCount());
+            reader.extractTo(target, ForkJoinPool.commonPool());
+        }
+        assertEquals(0, Files.size(target));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path other = Files.write(dir.resolve("other"), TestData.random(1000, 2));
+        assertFalse(BlockArchive.isBlockArchive(other));
+        assertThrows(IOException.class, () -> new BlockArchive.Reader(other));
+    }
+
+    @Test
+    void seekableFormatExtractsRanges() throws IOException {
+        Path source = Files.write(dir.resolve("source"), input);
+        Path cliArchive = dir.resolve("cli.cz");
+        String output = MainCliTest.run("comp", source, cliArchive, "seekable", "");
+        assertTrue(output.contains("Compression successful."), output);
+        assertTrue(BlockArchive.isBlockArchive(cliArchive));
+
+        Path range = dir.resolve("range");
+        assertTrue(MainCliTest.run("decomp", cliArchive, range, "1000-5000").contains("Decompression successful."));
+        assertArrayEquals(Arrays.copyOfRange(input, 1000, 5000), Files.readAllBytes(range));
+        Path whole = dir.resolve("whole");
+        assertTrue(MainCliTest.run("decomp", cliArchive, whole, "").contains("Decompression successful."));
+        assertArrayEquals(input, Files.readAllBytes(whole));
+        assertTrue(MainCliTest.run("decomp", cliArchive, range, "9-x").contains("Invalid range"));
+    }
+}
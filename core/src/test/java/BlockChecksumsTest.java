@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class BlockChecksumsTest {
+    // Two full checksum blocks and a partial one
+    private static final int LENGTH = 2 * BlockChecksums.BLOCK_SIZE + 1000;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @EnumSource(CompressingOutputStream.Mode.class)
+    void checkedStreamsRoundTrip(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] input = TestData.mixed(LENGTH, 1);
+        Path archive = Files.write(dir.resolve("archive.cz"), CompressingStreamTest.compress(input, mode, true));
+        assertTrue(DecompressingInputStream.isChecked(archive));
+        // A parallel stream is plain zlib and reads back as DEFLATE
+        assertEquals(mode == CompressingOutputStream.Mode.PARALLEL_DEFLATE ? CompressingOutputStream.Mode.DEFLATE : mode,
+                DecompressingInputStream.detectMode(archive));
+        assertEquals(LENGTH, BlockChecksums.originalSize(archive));
+        assertArrayEquals(input, CompressingStreamTest.decompress(Files.readAllBytes(archive), mode));
+
+        byte[] empty = CompressingStreamTest.compress(new byte[0], mode, true);
+        assertArrayEquals(new byte[0], CompressingStreamTest.decompress(empty, mode));
+    }
+
+    @Test
+    void uncheckedStreamsHaveNoTrailer() throws IOException {
+        Path archive = Files.write(dir.resolve("archive.cz"),
+                CompressingStreamTest.compress(TestData.text(1000, 2), CompressingOutputStream.Mode.DEFLATE, false));
+        assertFalse(DecompressingInputStream.isChecked(archive));
+        assertEquals(-1, BlockChecksums.originalSize(archive));
+        assertEquals(-1, BlockChecksums.originalSize(Files.write(dir.resolve("tiny"), new byte[3])));
+    }
+
+    @Test
+    void detectsDamage() throws IOException {
+        CompressingOutputStream.Mode mode = CompressingOutputStream.Mode.DEFLATE;
+        byte[] compressed = CompressingStreamTest.compress(TestData.text(LENGTH, 3), mode, true);
+        int blocks = (LENGTH + BlockChecksums.BLOCK_SIZE - 1) / BlockChecksums.BLOCK_SIZE;
+        int trailer = compressed.length - BlockChecksums.TRAILER_END_SIZE - 4 * blocks;
+        for (int position : new int[] {BlockChecksums.HEADER_SIZE + 100, trailer + 4, compressed.length - 10}) {
+            byte[] damaged = compressed.clone();
+            damaged[position] ^= (byte) 0xFF;
+            assertThrows(ZipException.class, () -> CompressingStreamTest.decompress(damaged, mode), "byte " + position);
+        }
+        byte[] truncated = Arrays.copyOf(compressed, trailer);
+        assertThrows(IOException.class, () -> CompressingStreamTest.decompress(truncated, mode));
+    }
+
+    @Test
+    void cliVerifiesAndSizesCheckedArchives() throws IOException {
+        byte[] input = TestData.text(LENGTH, 4);
+        Path source = Files.write(dir.resolve("source"), input);
+        Path archive = dir.resolve("archive.cz");
+        MainCliTest.run("comp", source, archive, "stream", "");
+
+        String output = MainCliTest.run("verify", archive);
+        assertTrue(output.contains("Archive OK: " + LENGTH + " bytes, block CRC-32Cs verified"), output);
+        output = MainCliTest.run("size", archive);
+        assertTrue(output.contains("Original size: " + LENGTH + " bytes"), output);
+
+        TestData.flipByte(archive, Files.size(archive) / 2);
+        output = MainCliTest.run("verify", archive);
+        assertTrue(output.contains("Archive is corrupt: "), output);
+    }
+}
@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class BlockCodecTest {
+    private static final int BLOCK = CompressingOutputStream.BLOCK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storesIncompressibleBlocks() throws ZipException {
+        assertEquals(BlockCodec.Method.STORE, BlockCodec.choose(TestData.random(BLOCK, 1), 0, BLOCK));
+        assertEquals(BlockCodec.Method.STORE, BlockCodec.choose(new byte[0], 0, 0));
+    }
+
+    @Test
+    void sendsLongRepeatsToHighDeflate() throws ZipException {
+        byte[] periodic = new byte[BLOCK];
+        byte[] period = TestData.random(100, 2);
+        for (int i = 0; i < periodic.length; i++) {
+            periodic[i] = period[i % period.length];
+        }
+        assertEquals(BlockCodec.Method.HIGH_DEFLATE, BlockCodec.choose(periodic, 0, BLOCK));
+    }
+
+    @Test
+    void compressesOrdinaryBlocks() throws ZipException {
+        BlockCodec.Method method = BlockCodec.choose(TestData.text(BLOCK, 3), 0, BLOCK);
+        assertTrue(method == BlockCodec.Method.FAST_DEFLATE || method == BlockCodec.Method.LZ77_HUFFMAN, method.name());
+        assertEquals(BlockCodec.Method.FAST_DEFLATE, BlockCodec.choose(TestData.text(100, 4), 0, 100));
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlockCodec.Method.class)
+    void everyMethodRoundTrips(BlockCodec.Method method) throws ZipException {
+        byte[] data = TestData.mixed(BLOCK + 20, 5);
+        byte[] encoded = BlockCodec.encode(method, data, 10, BLOCK, Main.DEFAULT_LEVEL);
+        byte[] payload = new byte[encoded.length + 7];
+        System.arraycopy(encoded, 0, payload, 0, encoded.length);
+        byte[] decoded = BlockCodec.decode(method, payload, encoded.length, BLOCK);
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 10 + BLOCK), decoded);
+        assertThrows(ZipException.class, () -> BlockCodec.decode(method, payload, encoded.length, BLOCK + 1));
+        assertEquals(method, BlockCodec.method(method.ordinal()));
+    }
+
+    @Test
+    void rejectsUnknownMethod() {
+        assertThrows(ZipException.class, () -> BlockCodec.method(BlockCodec.Method.values().length));
+    }
+
+    @Test
+    void adaptiveStreamPicksPerBlock() throws IOException {
+        // Text, random and skewed thirds of four blocks each
+        byte[] input = TestData.mixed(12 * BLOCK, 6);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(compressed, CompressingOutputStream.Mode.ADAPTIVE);
+        try (out) {
+            out.write(input);
+        }
+        assertEquals(4, out.blockCount(BlockCodec.Method.STORE));
+        assertArrayEquals(input, CompressingStreamTest.decompress(compressed.toByteArray(), CompressingOutputStream.Mode.ADAPTIVE));
+    }
+
+    @Test
+    void adaptiveFormatAsksForNoLevel() throws IOException {
+        byte[] input = TestData.mixed(3 * BLOCK, 7);
+        Path source = Files.write(dir.resolve("source"), input);
+        Path archive = dir.resolve("archive.cz");
+        String output = MainCliTest.run("comp", source, archive, "adaptive");
+        assertTrue(output.contains("Compression successful."), output);
+        assertFalse(output.contains("Enter compression level"), output);
+        assertEquals(CompressingOutputStream.Mode.ADAPTIVE, DecompressingInputStream.detectMode(archive));
+
+        Path restored = dir.resolve("restored");
+        assertTrue(MainCliTest.run("decomp", archive, restored).contains("Decompression successful."));
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+}
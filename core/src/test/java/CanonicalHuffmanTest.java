@@ -0,0 +1,142 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+
+class CanonicalHuffmanTest {
+
+    @Test
+    void limitsCodeLengths() {
+        // Fibonacci weights would need codes far longer than the limit
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        int a = 1;
+        int b = 1;
+        for (int symbol = 0; symbol < 40; symbol++) {
+            frequency[symbol] = a;
+            int next = Math.min(a + b, 1 << 28);
+            a = b;
+            b = next;
+        }
+        int[] lengths = CanonicalHuffman.codeLengths(frequency);
+        long kraft = 0;
+        for (int symbol = 0; symbol < CanonicalHuffman.SYMBOLS; symbol++) {
+            assertTrue(lengths[symbol] <= CanonicalHuffman.MAX_CODE_LENGTH);
+            assertEquals(frequency[symbol] > 0, lengths[symbol] > 0);
+            if (lengths[symbol] > 0) {
+                kraft += 1L << (CanonicalHuffman.MAX_CODE_LENGTH - lengths[symbol]);
+            }
+        }
+        assertEquals(1L << CanonicalHuffman.MAX_CODE_LENGTH, kraft);
+    }
+
+    @Test
+    void singleSymbolGetsOneBit() {
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        frequency['x'] = 1000;
+        int[] lengths = CanonicalHuffman.codeLengths(frequency);
+        assertEquals(1, lengths['x']);
+        assertEquals(1000, CanonicalHuffman.encodedBits(frequency, lengths));
+    }
+
+    @Test
+    void canonicalCodesArePrefixFree() {
+        int[] lengths = CanonicalHuffman.codeLengths(histogram(TestData.text(50_000, 1)));
+        int[] codes = CanonicalHuffman.canonicalCodes(lengths);
+        for (int x = 0; x < CanonicalHuffman.SYMBOLS; x++) {
+            for (int y = 0; y < CanonicalHuffman.SYMBOLS; y++) {
+                if (x != y && lengths[x] > 0 && lengths[y] >= lengths[x]) {
+                    assertTrue(codes[y] >>> (lengths[y] - lengths[x]) != codes[x], x + " is a prefix of " + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void headerRoundTrips() {
+        int[] lengths = CanonicalHuffman.codeLengths(histogram(TestData.skewed(50_000, 2)));
+        byte[] header = new byte[3 + CanonicalHuffman.headerSize(lengths)];
+        int end = CanonicalHuffman.writeHeader(lengths, header, 3);
+        assertEquals(header.length, end);
+        int[] read = new int[CanonicalHuffman.SYMBOLS];
+        assertEquals(end, CanonicalHuffman.readHeader(header, 3, read));
+        assertArrayEquals(lengths, read);
+    }
+
+    @Test
+    void encodesToTheCountedBits() {
+        byte[] input = TestData.text(50_000, 3);
+        int[] frequency = histogram(input);
+        int[] lengths = CanonicalHuffman.codeLengths(frequency);
+        byte[] out = new byte[input.length];
+        int end = CanonicalHuffman.encode(input, 0, input.length, CanonicalHuffman.canonicalCodes(lengths), lengths, out, 0);
+        assertEquals((CanonicalHuffman.encodedBits(frequency, lengths) + 7) / 8, end);
+    }
+
+    @Test
+    void huffmanBlocksRoundTrip() throws ZipException {
+        for (byte[] input : new byte[][] {{42}, TestData.random(20_000, 4), TestData.skewed(20_000, 5)}) {
+            assertArrayEquals(input, Main.huffmanDecompress(Main.huffmanCompress(input)));
+        }
+    }
+
+    @Test
+    void tableDecodesLongCodes() {
+        // Every symbol, most of them rare, so codes run past the primary table
+        byte[] input = TestData.skewed(200_000, 6);
+        for (int symbol = 0; symbol < CanonicalHuffman.SYMBOLS; symbol++) {
+            input[symbol * 700] = (byte) symbol;
+        }
+        int[] lengths = CanonicalHuffman.codeLengths(histogram(input));
+        assertTrue(Arrays.stream(lengths).max().getAsInt() > 10);
+        assertArrayEquals(input, decode(input, lengths, 0));
+    }
+
+    @Test
+    void decodesAtAnOutputOffset() {
+        byte[] input = TestData.text(10_001, 7);
+        int[] lengths = CanonicalHuffman.codeLengths(histogram(input));
+        assertArrayEquals(input, decode(input, lengths, 5));
+    }
+
+    @Test
+    void rejectsTruncatedData() {
+        byte[] input = TestData.text(10_000, 8);
+        int[] lengths = CanonicalHuffman.codeLengths(histogram(input));
+        byte[] encoded = new byte[input.length];
+        int end = CanonicalHuffman.encode(input, 0, input.length, CanonicalHuffman.canonicalCodes(lengths), lengths, encoded, 0);
+        assertThrows(IllegalArgumentException.class, () -> CanonicalHuffman.decode(encoded, 0, end / 2,
+                CanonicalHuffman.decodeTable(lengths), new byte[input.length], 0, input.length));
+    }
+
+    @Test
+    void rejectsOversubscribedHeader() {
+        int[] lengths = new int[CanonicalHuffman.SYMBOLS];
+        lengths['a'] = 1;
+        lengths['b'] = 1;
+        lengths['c'] = 1;
+        byte[] header = new byte[CanonicalHuffman.headerSize(lengths)];
+        CanonicalHuffman.writeHeader(lengths, header, 0);
+        assertThrows(IllegalArgumentException.class, () -> CanonicalHuffman.readHeader(header, 0, new int[CanonicalHuffman.SYMBOLS]));
+    }
+
+    private static byte[] decode(byte[] input, int[] lengths, int outOffset) {
+        byte[] encoded = new byte[input.length + 8];
+        int end = CanonicalHuffman.encode(input, 0, input.length, CanonicalHuffman.canonicalCodes(lengths), lengths, encoded, 0);
+        byte[] out = new byte[outOffset + input.length];
+        CanonicalHuffman.decode(encoded, 0, end, CanonicalHuffman.decodeTable(lengths), out, outOffset, input.length);
+        return Arrays.copyOfRange(out, outOffset, out.length);
+    }
+
+    static int[] histogram(byte[] data) {
+        int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+        for (byte b : data) {
+            frequency[b & 0xFF]++;
+        }
+        return frequency;
+    }
+}
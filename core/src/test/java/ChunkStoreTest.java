@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkStoreTest {
+    private static final int LENGTH = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void cutsWithinTheChunkBounds() {
+        byte[] data = TestData.random(LENGTH, 1);
+        int chunks = 0;
+        for (int position = 0; position < data.length; chunks++) {
+            int length = ChunkStore.cut(data, position, data.length);
+            assertTrue(length <= ChunkStore.MAX_CHUNK, "chunk " + chunks + ": " + length);
+            assertTrue(length > ChunkStore.MIN_CHUNK || position + length == data.length, "chunk " + chunks + ": " + length);
+            position += length;
+        }
+        // The masks aim at the average size
+        assertTrue(chunks > LENGTH / (2 * ChunkStore.AVERAGE_CHUNK) && chunks < 2 * LENGTH / ChunkStore.AVERAGE_CHUNK,
+                chunks + " chunks");
+        assertEquals(0, ChunkStore.cut(data, 5, 5));
+    }
+
+    @Test
+    void storesOnlyNewChunks() throws IOException {
+        byte[] original = TestData.random(LENGTH, 2);
+        Path store = dir.resolve("store");
+        Path recipe = dir.resolve("first.czd");
+        ChunkStore.Stats first = ChunkStore.store(Files.write(dir.resolve("first"), original), recipe, store, Main.DEFAULT_LEVEL);
+        assertEquals(first.chunks, first.newChunks);
+        assertEquals(LENGTH, first.bytesIn);
+        assertTrue(ChunkStore.isRecipe(recipe));
+        assertEquals(LENGTH, ChunkStore.originalSize(recipe));
+
+        // An insertion only moves the boundaries next to it
+        byte[] edited = new byte[LENGTH + 100];
+        System.arraycopy(original, 0, edited, 0, LENGTH / 2);
+        System.arraycopy(original, LENGTH / 2, edited, LENGTH / 2 + 100, LENGTH / 2);
+        Path editedRecipe = dir.resolve("edited.czd");
+        ChunkStore.Stats second = ChunkStore.store(Files.write(dir.resolve("edited"), edited), editedRecipe, store,
+                Main.DEFAULT_LEVEL);
+        assertTrue(second.newChunks <= 3, second.newChunks + " new chunks");
+
+        assertArrayEquals(original, restore(recipe));
+        assertArrayEquals(edited, restore(editedRecipe));
+        assertFalse(ChunkStore.isRecipe(dir.resolve("first")));
+        assertFalse(ChunkStore.isRecipe(store));
+    }
+
+    @Test
+    void rejectsMissingAndCorruptChunks() throws IOException {
+        Path store = dir.resolve("store");
+        Path recipe = dir.resolve("archive.czd");
+        ChunkStore.store(Files.write(dir.resolve("source"), TestData.random(100_000, 3)), recipe, store, Main.DEFAULT_LEVEL);
+        List<Path> chunks;
+        try (Stream<Path> walk = Files.walk(store)) {
+            chunks = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        // Valid zlib with the same length, but not the chunk's content
+        byte[] chunk = ZlibCodec.decompress(Files.readAllBytes(chunks.get(0)));
+        chunk[0] ^= 1;
+        Files.write(chunks.get(0), ZlibCodec.compress(chunk));
+        ZipException e = assertThrows(ZipException.class, () -> restore(recipe));
+        assertTrue(e.getMessage().contains("is corrupt"), e.getMessage());
+
+        Files.delete(chunks.get(0));
+        e = assertThrows(ZipException.class, () -> restore(recipe));
+        assertTrue(e.getMessage().contains("is missing"), e.getMessage());
+    }
+
+    @Test
+    void cliDeduplicatesAcrossFiles() throws IOException {
+        byte[] input = TestData.random(LENGTH, 4);
+        Path source = Files.write(dir.resolve("source"), input);
+        Path store = dir.resolve("store");
+        String output = MainCliTest.run("comp", source, dir.resolve("first.czd"), "dedup", store, "");
+        assertTrue(output.contains("Compression successful."), output);
+        Path archive = dir.resolve("second.czd");
+        output = MainCliTest.run("comp", source, archive, "dedup", store, "");
+        assertTrue(output.contains(", 0 new, 0 bytes stored"), output);
+
+        output = MainCliTest.run("verify", archive);
+        assertTrue(output.contains("Archive OK: " + LENGTH + " bytes"), output);
+        assertTrue(output.contains("chunk SHA-256s verified"), output);
+        Path restored = dir.resolve("restored");
+        assertTrue(MainCliTest.run("decomp", archive, restored).contains("Decompression successful."));
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+
+    private static byte[] restore(Path recipe) throws IOException {
+        ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        ChunkStore.restore(recipe, restored);
+        return restored.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class CompressingStreamTest {
+    private static final int LENGTH = 600 * 1024;
+
+    @ParameterizedTest
+    @EnumSource(value = CompressingOutputStream.Mode.class, names = {"DEFLATE", "PARALLEL_DEFLATE", "LZ77_HUFFMAN"})
+    void roundTrips(CompressingOutputStream.Mode mode) throws IOException {
+        for (byte[] input : new byte[][] {new byte[0], {42}, TestData.mixed(LENGTH, 1)}) {
+            assertArrayEquals(input, decompress(compress(input, mode, false), mode));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressingOutputStream.Mode.class, names = {"DEFLATE", "PARALLEL_DEFLATE", "LZ77_HUFFMAN"})
+    void roundTripsSingleByteWrites(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] input = TestData.text(10_000, 2);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new CompressingOutputStream(compressed, mode)) {
+            for (byte b : input) {
+                out.write(b);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = new DecompressingInputStream(new ByteArrayInputStream(compressed.toByteArray()), mode)) {
+            for (int b; (b = in.read()) >= 0; ) {
+                output.write(b);
+            }
+        }
+        assertArrayEquals(input, output.toByteArray());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressingOutputStream.Mode.class, names = {"DEFLATE", "PARALLEL_DEFLATE", "LZ77_HUFFMAN"})
+    void rejectsTruncatedStream(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] compressed = compress(TestData.mixed(LENGTH, 3), mode, false);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(IOException.class, () -> decompress(truncated, mode));
+    }
+
+    // Damage anywhere is an IOException; without checksums a flip may also decode to wrong bytes
+    @ParameterizedTest
+    @EnumSource(value = CompressingOutputStream.Mode.class, names = {"LZ77_HUFFMAN", "ADAPTIVE"})
+    void reportsCorruptionAsIOException(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] input = TestData.text(2 * CompressingOutputStream.BLOCK_SIZE + 1000, 4);
+        Random random = new Random(5);
+        for (boolean checked : new boolean[] {false, true}) {
+            byte[] compressed = compress(input, mode, checked);
+            for (int flip = 0; flip < 300; flip++) {
+                byte[] damaged = compressed.clone();
+                int position = random.nextInt(damaged.length);
+                damaged[position] ^= (byte) (1 + random.nextInt(255));
+                try {
+                    byte[] output = decompress(damaged, mode);
+                    if (checked) {
+                        assertArrayEquals(input, output, "byte " + position);
+                    }
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    static byte[] compress(byte[] input, CompressingOutputStream.Mode mode, boolean checked) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new CompressingOutputStream(compressed, mode, Main.DEFAULT_LEVEL, null, checked)) {
+            out.write(input);
+        }
+        return compressed.toByteArray();
+    }
+
+    static byte[] decompress(byte[] compressed, CompressingOutputStream.Mode mode) throws IOException {
+        try (InputStream in = new DecompressingInputStream(new ByteArrayInputStream(compressed), mode)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class CompressionLevelTest {
+    private static final int LENGTH = 20 * 1024;
+
+    @TempDir
+    Path dir;
+
+    static Stream<Arguments> inputsAndLevels() {
+        List<Arguments> cases = new ArrayList<>();
+        for (Arguments input : MatchFinderTest.inputs().toList()) {
+            for (int level = Main.MIN_LEVEL; level <= Main.MAX_LEVEL; level++) {
+                cases.add(Arguments.of(input.get()[0], input.get()[1], level));
+            }
+        }
+        return cases.stream();
+    }
+
+    @ParameterizedTest(name = "{0}, level {2}")
+    @MethodSource("inputsAndLevels")
+    void everyLevelRoundTrips(String name, byte[] input, int level) throws ZipException {
+        assertArrayEquals(input, Main.decompress(Main.compress(input, level)));
+    }
+
+    @Test
+    void higherLevelsParseSmaller() {
+        byte[] input = TestData.text(4 * LENGTH, 1);
+        int greedy = Main.compress(input, 1).length;
+        int lazy = Main.compress(input, 6).length;
+        int optimal = Main.compress(input, 9).length;
+        assertTrue(lazy <= greedy, lazy + " > " + greedy);
+        assertTrue(optimal <= lazy, optimal + " > " + lazy);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0, 10})
+    void rejectsLevelsOutOfRange(int level) {
+        byte[] input = TestData.text(100, 2);
+        assertThrows(IllegalArgumentException.class, () -> Main.compress(input, level));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompressingOutputStream(new ByteArrayOutputStream(), CompressingOutputStream.Mode.DEFLATE, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "10", "fast"})
+    void cliRejectsInvalidLevel(String level) throws IOException {
+        Path source = Files.write(dir.resolve("source"), TestData.text(LENGTH, 3));
+        Path archive = dir.resolve("archive.cz");
+        String output = MainCliTest.run("comp", source, archive, "stream", level);
+        assertTrue(output.contains("Invalid level: " + level), output);
+        assertFalse(Files.exists(archive));
+    }
+
+    @Test
+    void cliLevelReachesTheCodec() throws IOException {
+        byte[] input = TestData.text(10 * LENGTH, 4);
+        Path source = Files.write(dir.resolve("source"), input);
+        Path fast = dir.resolve("fast.cz");
+        Path small = dir.resolve("small.cz");
+        MainCliTest.run("comp", source, fast, "stream", "1");
+        MainCliTest.run("comp", source, small, "stream", "9");
+        assertTrue(Files.size(small) < Files.size(fast), Files.size(small) + " >= " + Files.size(fast));
+
+        Path restored = dir.resolve("restored");
+        assertTrue(MainCliTest.run("decomp", small, restored).contains("Decompression successful."));
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// The counters are process-wide; JUnit runs these tests one at a time
+class CompressionStatsTest {
+    private final CompressionStats stats = CompressionStats.INSTANCE;
+
+    @BeforeEach
+    void reset() {
+        stats.reset();
+    }
+
+    @Test
+    void countsOneOperationPerCall() throws ZipException {
+        byte[] input = TestData.text(100_000, 1);
+        byte[] compressed = Main.compress(input);
+        assertEquals(1, stats.getCompressOperations());
+        assertEquals(input.length, stats.getBytesIn());
+        assertEquals(compressed.length, stats.getBytesOut());
+        assertEquals((double) compressed.length / input.length, stats.getCompressionRatio(), 1e-9);
+        assertEquals(1, Arrays.stream(stats.getRatioHistogram()).sum());
+
+        Main.decompress(compressed);
+        assertEquals(1, stats.getDecompressOperations());
+        assertTrue(stageCalls("lz77_parse") > 0);
+        assertTrue(stageCalls("huffman_decode") > 0);
+    }
+
+    // Blocks and trial compressions inside a stream are not operations of their own
+    @ParameterizedTest
+    @EnumSource(CompressingOutputStream.Mode.class)
+    void countsAStreamAsOneOperation(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] input = TestData.mixed(700_000, 2);
+        byte[] compressed = CompressingStreamTest.compress(input, mode, false);
+        assertEquals(1, stats.getCompressOperations());
+        assertEquals(input.length, stats.getBytesIn());
+        assertEquals(compressed.length, stats.getBytesOut());
+
+        assertArrayEquals(input, CompressingStreamTest.decompress(compressed, mode));
+        assertEquals(1, stats.getDecompressOperations());
+    }
+
+    @Test
+    void resetClearsEverything() throws IOException {
+        try (OutputStream out = new CompressingOutputStream(new ByteArrayOutputStream())) {
+            out.write(TestData.text(1000, 3));
+        }
+        stats.reset();
+        assertEquals(0, stats.getCompressOperations());
+        assertEquals(0, stats.getBytesIn());
+        assertEquals(0, stats.getErrors());
+        assertEquals(0, Arrays.stream(stats.getRatioHistogram()).sum());
+    }
+
+    @Test
+    void publishesOverJmx() throws JMException {
+        CompressionStats.register();
+        CompressionStats.register();
+        ObjectName name = new ObjectName("comprizip:type=CompressionStats");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Main.compress(TestData.text(1000, 4));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CompressOperations"));
+    }
+
+    private long stageCalls(String stage) {
+        for (String line : stats.getStageSummary()) {
+            if (line.startsWith(stage + ": ")) {
+                return Long.parseLong(line.substring(stage.length() + 2, line.indexOf(' ', stage.length() + 2)));
+            }
+        }
+        throw new AssertionError("No stage " + stage);
+    }
+}
@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class DecompTest {
+
+    // Any bytes are a valid stream, so random input covers every item mix
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 17, 1000, 200_000})
+    void everyVariantMatchesTheReference(int length) throws IOException {
+        byte[] data = TestData.random(length, length);
+        byte[] expected = reference(data);
+
+        assertArrayEquals(expected, Decomp.lz77Decompression(data));
+        assertEquals(expected.length, Decomp.decompressedLength(data, 0, data.length));
+
+        byte[] output = new byte[expected.length + 3];
+        assertEquals(expected.length, Decomp.lz77Decompression(data, 0, data.length, output, 3));
+        assertArrayEquals(expected, Arrays.copyOfRange(output, 3, output.length));
+
+        for (boolean direct : new boolean[] {false, true}) {
+            ByteBuffer in = direct ? ByteBuffer.allocateDirect(data.length).put(data).flip() : ByteBuffer.wrap(data);
+            ByteBuffer out = direct ? ByteBuffer.allocateDirect(expected.length) : ByteBuffer.allocate(expected.length);
+            Decomp.lz77Decompression(in, out);
+            byte[] decoded = new byte[out.flip().remaining()];
+            out.get(decoded);
+            assertArrayEquals(expected, decoded, direct ? "direct" : "heap");
+        }
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        assertEquals(expected.length, Decomp.lz77Decompression(new ByteArrayInputStream(data), streamed));
+        assertArrayEquals(expected, streamed.toByteArray());
+    }
+
+    @Test
+    void copiesOverlappingRuns() throws IOException {
+        // Literal 'a', then distance 1 length 18 twice: a run of 37 'a's
+        byte[] data = {0b0000_0001, 'a', 0x00, 0x1F, 0x00, 0x1F};
+        byte[] expected = new byte[37];
+        Arrays.fill(expected, (byte) 'a');
+        assertArrayEquals(expected, Decomp.lz77Decompression(data));
+    }
+
+    @Test
+    void distanceZeroReachesTheZeroWindow() throws IOException {
+        byte[] data = {0b0000_0010, 0x00, 0x00, 'z'};
+        assertArrayEquals(new byte[] {0, 0, 0, 'z'}, Decomp.lz77Decompression(data));
+    }
+
+    @Test
+    void rejectsSmallOutputBuffer() {
+        byte[] data = TestData.random(1000, 5);
+        byte[] output = new byte[reference(data).length - 1];
+        assertThrows(IOException.class, () -> Decomp.lz77Decompression(data, 0, data.length, output, 0));
+    }
+
+    // The original decoder's semantics: a 4096-byte zero window, offset 0 is 4096
+    private static byte[] reference(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] window = new byte[4096];
+        int pointer = 0;
+        int position = 0;
+        while (position < data.length) {
+            int flag = data[position++];
+            for (int i = 0; i < 8; i++) {
+                if ((flag & (1 << i)) == 0) {
+                    if (data.length - position < 2) {
+                        return out.toByteArray();
+                    }
+                    int byte1 = data[position++] & 0xFF;
+                    int byte2 = data[position++] & 0xFF;
+                    int offset = (byte1 << 4) | (byte2 >> 4);
+                    for (int j = 0; j < (byte2 & 0x0F) + 3; j++) {
+                        byte value = window[(pointer - offset + 4096) % 4096];
+                        out.write(value);
+                        window[pointer] = value;
+                        pointer = (pointer + 1) % 4096;
+                    }
+                } else {
+                    if (position == data.length) {
+                        return out.toByteArray();
+                    }
+                    byte literal = data[position++];
+                    out.write(literal);
+                    window[pointer] = literal;
+                    pointer = (pointer + 1) % 4096;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+}
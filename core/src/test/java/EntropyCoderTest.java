@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class EntropyCoderTest {
+
+    static Stream<Arguments> levelsAndCoders() {
+        List<Arguments> cases = new ArrayList<>();
+        for (Arguments input : MatchFinderTest.inputs().toList()) {
+            for (int level = Main.MIN_LEVEL; level <= Main.MAX_LEVEL; level++) {
+                for (Main.EntropyCoder coder : Main.EntropyCoder.values()) {
+                    cases.add(Arguments.of(input.get()[0], input.get()[1], level, coder));
+                }
+            }
+        }
+        return cases.stream();
+    }
+
+    @ParameterizedTest(name = "{0}, level {2}, {3}")
+    @MethodSource("levelsAndCoders")
+    void everyCoderRoundTripsAtEveryLevel(String name, byte[] input, int level, Main.EntropyCoder coder) throws ZipException {
+        assertArrayEquals(input, Main.decodeBlock(Main.encodeBlock(input, level, coder)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("MatchFinderTest#inputs")
+    void rawCodersRoundTrip(String name, byte[] input) throws ZipException {
+        if (input.length == 0) {
+            return; // An empty entropy block is written by the LZ77 path only
+        }
+        assertArrayEquals(input, Main.huffmanDecompress(Main.huffmanCompress(input)), "Huffman");
+        assertArrayEquals(input, Main.huffmanDecompress(Main.fseCompress(input)), "FSE");
+    }
+
+    // A byte with probability 0.7 costs a whole bit in Huffman but about half a bit in FSE
+    @Test
+    void fseBeatsHuffmanOnSkewedBytes() {
+        byte[] input = TestData.skewed(100_000, 1);
+        int huffman = Main.huffmanCompress(input).length;
+        int fse = Main.fseCompress(input).length;
+        assertTrue(fse < huffman, fse + " >= " + huffman);
+    }
+
+    @Test
+    void rejectsCorruptBlocks() {
+        // One literal, then a match reaching back past the start
+        byte[] badOffset = Main.huffmanCompress(new byte[] {0, 0, 0, 0, 0, 'a', 0, 0, 5, 0, 3, 'b'});
+        assertThrows(ZipException.class, () -> Main.decodeBlock(badOffset));
+        byte[] partialToken = Main.huffmanCompress(new byte[] {0, 0, 0, 0, 0});
+        assertThrows(ZipException.class, () -> Main.decodeBlock(partialToken));
+        assertThrows(ZipException.class, () -> Main.huffmanDecompress(new byte[3]));
+
+        byte[] encoded = Main.encodeBlock(TestData.text(20_000, 2), Main.DEFAULT_LEVEL, Main.EntropyCoder.HUFFMAN);
+        assertThrows(ZipException.class, () -> Main.decodeBlock(Arrays.copyOf(encoded, encoded.length / 2)));
+        assertThrows(ZipException.class, () -> Main.decodeBlock(Arrays.copyOf(encoded, encoded.length + 2)));
+    }
+}
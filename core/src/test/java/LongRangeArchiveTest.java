@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LongRangeArchiveTest {
+    private static final int REPEAT = 2 * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    // A random block, a random gap and the block again: a repeat megabytes
+    // back, far out of Deflate's reach
+    private static byte[] repeated() {
+        byte[] block = TestData.random(REPEAT, 1);
+        byte[] gap = TestData.random(REPEAT / 2, 2);
+        byte[] input = new byte[2 * REPEAT + gap.length];
+        System.arraycopy(block, 0, input, 0, REPEAT);
+        System.arraycopy(gap, 0, input, REPEAT, gap.length);
+        System.arraycopy(block, 0, input, REPEAT + gap.length, REPEAT);
+        return input;
+    }
+
+    @Test
+    void windowCoversTheInput() {
+        assertEquals(LongRangeArchive.MIN_WINDOW_LOG, LongRangeArchive.windowLog(0));
+        assertEquals(LongRangeArchive.MIN_WINDOW_LOG, LongRangeArchive.windowLog(1L << LongRangeArchive.MIN_WINDOW_LOG));
+        assertEquals(LongRangeArchive.MIN_WINDOW_LOG + 1, LongRangeArchive.windowLog((1L << LongRangeArchive.MIN_WINDOW_LOG) + 1));
+        assertEquals(LongRangeArchive.MAX_WINDOW_LOG, LongRangeArchive.windowLog(Long.MAX_VALUE));
+    }
+
+    @Test
+    void findsRepeatsBeyondTheDeflateWindow() throws IOException {
+        byte[] input = repeated();
+        Path source = Files.write(dir.resolve("source"), input);
+        Path archive = dir.resolve("archive.czl");
+        LongRangeArchive.Stats stats = LongRangeArchive.compress(source, archive, Main.DEFAULT_LEVEL);
+        assertTrue(stats.matches > 0);
+        assertTrue(stats.matchedBytes > REPEAT - LongRangeArchive.MIN_MATCH * 32, stats.matchedBytes + " bytes matched");
+        assertTrue(Files.size(archive) < input.length - REPEAT + REPEAT / 10, Files.size(archive) + " bytes");
+        assertTrue(LongRangeArchive.isLongRangeArchive(archive));
+        assertEquals(input.length, LongRangeArchive.originalSize(archive));
+        assertFalse(LongRangeArchive.isLongRangeArchive(source));
+
+        Path restored = dir.resolve("restored");
+        // Over a longer file, which has to be truncated
+        Files.write(restored, new byte[input.length + 1000]);
+        assertEquals(stats.matches, LongRangeArchive.decompress(archive, restored).matches);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+
+    @Test
+    void roundTripsSmallInputs() throws IOException {
+        for (byte[] input : new byte[][] {new byte[0], {42}, TestData.text(100_000, 3)}) {
+            Path source = Files.write(dir.resolve("source"), input);
+            Path archive = dir.resolve("archive.czl");
+            LongRangeArchive.compress(source, archive, Main.DEFAULT_LEVEL);
+            Path restored = dir.resolve("restored");
+            LongRangeArchive.decompress(archive, restored);
+            assertArrayEquals(input, Files.readAllBytes(restored), input.length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsCorruptArchives() throws IOException {
+        Path source = Files.write(dir.resolve("source"), TestData.text(100_000, 4));
+        Path archive = dir.resolve("archive.czl");
+        LongRangeArchive.compress(source, archive, Main.DEFAULT_LEVEL);
+        TestData.flipByte(archive, Files.size(archive) - 3);
+        assertThrows(IOException.class, () -> LongRangeArchive.decompress(archive, dir.resolve("restored")));
+    }
+
+    // Header sizes far too large or too small fail without mapping the claimed size,
+    // and leave no partial output behind
+    @Test
+    void rejectsCorruptSizes() throws IOException {
+        Path source = Files.write(dir.resolve("source"), TestData.text(100_000, 5));
+        Path archive = dir.resolve("archive.czl");
+        LongRangeArchive.compress(source, archive, Main.DEFAULT_LEVEL);
+        byte[] valid = Files.readAllBytes(archive);
+        for (long size : new long[] {Long.MAX_VALUE, 1L << 50, 100_001, 99_999, 0}) {
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putLong(6, size);
+            Files.write(archive, corrupt);
+            Path restored = dir.resolve("restored");
+            assertThrows(ZipException.class, () -> LongRangeArchive.decompress(archive, restored), size + " bytes");
+            assertFalse(Files.exists(restored), size + " bytes");
+        }
+    }
+
+    @Test
+    void cliCompressesLongRange() throws IOException {
+        byte[] input = repeated();
+        Path source = Files.write(dir.resolve("source"), input);
+        Path archive = dir.resolve("archive.czl");
+        String output = MainCliTest.run("comp", source, archive, "long", "");
+        assertTrue(output.contains("Long-range matches: "), output);
+        assertTrue(output.contains("Compression successful."), output);
+
+        output = MainCliTest.run("verify", archive);
+        assertTrue(output.contains("Archive OK: " + input.length + " bytes, CRC-32C verified"), output);
+        Path restored = dir.resolve("restored");
+        assertTrue(MainCliTest.run("decomp", archive, restored).contains("Decompression successful."));
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Drives the interactive commands through System.in and System.out
+class MainCliTest {
+    private static final int LENGTH = 200 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private Path source;
+    private byte[] input;
+
+    private void writeSource() throws IOException {
+        input = TestData.text(LENGTH, 21);
+        source = Files.write(dir.resolve("source.txt"), input);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "stream"})
+    void streamRoundTrips(String format) throws IOException {
+        writeSource();
+        Path archive = dir.resolve("archive.cz");
+        String output = run("comp", source, archive, format, "");
+        assertTrue(output.contains("Compression successful."), output);
+
+        Path restored = dir.resolve("restored.txt");
+        output = run("decomp", archive, restored);
+        assertTrue(output.contains("Decompression successful."), output);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+
+    @Test
+    void survivesCorruptArchives() throws IOException {
+        byte[] compressed = CompressingStreamTest.compress(TestData.text(LENGTH, 22), CompressingOutputStream.Mode.LZ77_HUFFMAN, true);
+        compressed[compressed.length / 2] ^= (byte) 0xFF;
+        Path archive = Files.write(dir.resolve("corrupt.cz"), compressed);
+        String output = run("decomp", archive, dir.resolve("restored"), "verify", archive);
+        assertTrue(output.contains("Error: "), output);
+        assertTrue(output.contains("Archive is corrupt: "), output);
+        assertTrue(output.contains("Exiting program."), output);
+    }
+
+    // Runs one command followed by exit, answering its prompts with the given lines
+    static String run(Object... lines) {
+        StringBuilder script = new StringBuilder();
+        for (Object line : lines) {
+            script.append(line).append('\n');
+        }
+        script.append("exit\n");
+
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(script.toString().getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+            Main.main(new String[0]);
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class MappedFilesTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void comparesContent() throws IOException {
+        byte[] data = TestData.random(100_000, 1);
+        Path first = Files.write(dir.resolve("first"), data);
+        Path same = Files.write(dir.resolve("same"), data);
+        assertTrue(MappedFiles.contentEquals(first, same));
+        assertTrue(MappedFiles.contentEquals(first, first));
+
+        data[data.length - 1]++;
+        Path last = Files.write(dir.resolve("last"), data);
+        assertFalse(MappedFiles.contentEquals(first, last));
+        Path shorter = Files.write(dir.resolve("shorter"), TestData.random(99_999, 1));
+        assertFalse(MappedFiles.contentEquals(first, shorter));
+
+        Path empty = Files.write(dir.resolve("empty"), new byte[0]);
+        assertTrue(MappedFiles.contentEquals(empty, Files.write(dir.resolve("empty2"), new byte[0])));
+    }
+
+    @Test
+    void visitsWindowsInOrder() throws IOException {
+        byte[] data = TestData.random(100_000, 2);
+        Path path = Files.write(dir.resolve("data"), data);
+        ByteArrayOutputStream visited = new ByteArrayOutputStream();
+        long size = MappedFiles.forEachWindow(path, window -> {
+            byte[] bytes = new byte[window.remaining()];
+            window.get(bytes);
+            visited.write(bytes);
+        });
+        assertEquals(data.length, size);
+        assertArrayEquals(data, visited.toByteArray());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressingOutputStream.Mode.class, names = {"DEFLATE", "PARALLEL_DEFLATE", "LZ77_HUFFMAN"})
+    void compressesMappedWindows(CompressingOutputStream.Mode mode) throws IOException {
+        byte[] data = TestData.mixed(600 * 1024, 3);
+        Path path = Files.write(dir.resolve("data"), data);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (CompressingOutputStream out = new CompressingOutputStream(compressed, mode)) {
+            MappedFiles.forEachWindow(path, out::write);
+        }
+        assertArrayEquals(data, CompressingStreamTest.decompress(compressed.toByteArray(), mode));
+    }
+
+    @Test
+    void regionCopiesOverlappingRuns() throws IOException {
+        byte[] expected = new byte[100_000];
+        byte[] seed = TestData.random(1000, 6);
+        try (FileChannel channel = FileChannel.open(dir.resolve("region"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedFiles.Region region = new MappedFiles.Region(channel, FileChannel.MapMode.READ_WRITE, expected.length);
+            region.put(0, seed, 0, seed.length);
+            System.arraycopy(seed, 0, expected, 0, seed.length);
+            long position = seed.length;
+            // Distance 1 is a byte run; 3 and 7 repeat a short period; 900 does not overlap
+            for (int distance : new int[] {1, 3, 7, 900}) {
+                for (int i = 0; i < 20_000; i++) {
+                    expected[(int) position + i] = expected[(int) position + i - distance];
+                }
+                region.copy(position - distance, position, 20_000);
+                position += 20_000;
+            }
+            byte[] actual = new byte[expected.length];
+            for (int i = 0; i < actual.length; i++) {
+                actual[i] = region.get(i);
+            }
+            assertArrayEquals(expected, actual);
+
+            long periodSeven = seed.length + 2 * 20_000;
+            assertEquals(20_000, region.matchLength(periodSeven - 7, periodSeven, 20_000));
+            assertEquals(500, region.matchLength(0, 0, 500));
+            assertEquals(Arrays.mismatch(seed, 1, 1000, seed, 0, 999), region.matchLength(0, 1, 999));
+        }
+    }
+
+    @Test
+    void equalCommandReportsResult() throws IOException {
+        Path first = Files.write(dir.resolve("first"), TestData.text(10_000, 4));
+        Path second = Files.write(dir.resolve("second"), TestData.text(10_000, 4));
+        Path other = Files.write(dir.resolve("other"), TestData.text(10_000, 5));
+        assertTrue(MainCliTest.run("equal", first, second).contains("Files are equal: true"));
+        assertTrue(MainCliTest.run("equal", first, other).contains("Files are equal: false"));
+    }
+}
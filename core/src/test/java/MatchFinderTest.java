@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MatchFinderTest {
+    private static final int LENGTH = 20 * 1024;
+
+    static Stream<Arguments> inputs() {
+        return Stream.of(
+                Arguments.of("empty", new byte[0]),
+                Arguments.of("one byte", new byte[] {42}),
+                Arguments.of("random", TestData.random(LENGTH, 1)),
+                Arguments.of("skewed", TestData.skewed(LENGTH, 2)),
+                Arguments.of("text", TestData.text(LENGTH, 3)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("inputs")
+    void lz77RoundTrips(String name, byte[] input) throws ZipException {
+        assertArrayEquals(input, Main.decompress(Main.compress(input)));
+    }
+
+    @Test
+    void findsLongestMatchInChain() {
+        byte[] data = "abcd-abcdefg-abcdef-abcdefgh".getBytes(StandardCharsets.US_ASCII);
+        MatchFinder finder = new MatchFinder(MatchFinder.MIN_WINDOW_SIZE, 258, 16);
+        finder.reset(data, data.length);
+        finder.insert(0, 20);
+        // abcdefg at 5 beats the nearer abcdef at 13
+        assertEquals(7, finder.findMatch(20, data.length));
+        assertEquals(15, finder.matchOffset());
+    }
+
+    @Test
+    void findsClosestMatchOfEachLength() {
+        byte[] data = "abcd-abcdefg-abcdef-abcdefgh".getBytes(StandardCharsets.US_ASCII);
+        MatchFinder finder = new MatchFinder(MatchFinder.MIN_WINDOW_SIZE, 258, 16);
+        finder.reset(data, data.length);
+        finder.insert(0, 20);
+        // The nearer abcdef, then the longer abcdefg; abcd at 0 is neither
+        int[] lengths = new int[4];
+        int[] offsets = new int[4];
+        assertEquals(2, finder.findMatches(20, data.length, lengths, offsets));
+        assertArrayEquals(new int[] {6, 7}, Arrays.copyOf(lengths, 2));
+        assertArrayEquals(new int[] {7, 15}, Arrays.copyOf(offsets, 2));
+
+        // Without room for both the longest wins
+        lengths = new int[1];
+        offsets = new int[1];
+        assertEquals(1, finder.findMatches(20, data.length, lengths, offsets));
+        assertEquals(7, lengths[0]);
+        assertEquals(15, offsets[0]);
+    }
+
+    @Test
+    void stopsAtChainDepth() {
+        byte[] data = "abcdefg-abc-abc-abc-abcdefg".getBytes(StandardCharsets.US_ASCII);
+        MatchFinder finder = new MatchFinder(MatchFinder.MIN_WINDOW_SIZE, 258, 1);
+        finder.reset(data, data.length);
+        finder.insert(0, 20);
+        // Only the nearest abc is looked at
+        assertEquals(3, finder.findMatch(20, data.length));
+        assertEquals(4, finder.matchOffset());
+    }
+
+    @Test
+    void ignoresMatchesOutsideWindow() {
+        byte[] block = TestData.random(64, 4);
+        byte[] data = new byte[MatchFinder.MIN_WINDOW_SIZE + 2 * block.length];
+        System.arraycopy(block, 0, data, 0, block.length);
+        System.arraycopy(block, 0, data, data.length - block.length, block.length);
+        MatchFinder finder = new MatchFinder(MatchFinder.MIN_WINDOW_SIZE, 258, 4096);
+        finder.reset(data, data.length);
+        finder.insert(0, data.length - block.length);
+        assertEquals(0, finder.findMatch(data.length - block.length, data.length));
+    }
+
+    @Test
+    void compressesRepeatsAcrossTheWindow() throws ZipException {
+        // Random data repeated 20 KiB later is only compressible through matches
+        byte[] block = TestData.random(20 * 1024, 5);
+        byte[] input = new byte[2 * block.length];
+        System.arraycopy(block, 0, input, 0, block.length);
+        System.arraycopy(block, 0, input, block.length, block.length);
+        byte[] compressed = Main.compress(input);
+        assertTrue(compressed.length < input.length * 6 / 10, "compressed to " + compressed.length);
+        assertArrayEquals(input, Main.decompress(compressed));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {16 * 1024, 48 * 1024, 2 * 1024 * 1024})
+    void rejectsBadWindowSizes(int windowSize) {
+        assertThrows(IllegalArgumentException.class, () -> new MatchFinder(windowSize, 258, 16));
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MultiArchiveTest {
+    // The large entry goes past the in-memory limit and is spilled to a temporary file
+    private static final List<String> NAMES = List.of("empty", "large.txt", "nested/skewed.bin", "random.bin", "text.txt");
+
+    @TempDir
+    Path dir;
+
+    private Path source;
+    private Path archive;
+
+    @BeforeEach
+    void writeTree() throws IOException {
+        source = Files.createDirectories(dir.resolve("source"));
+        Files.write(source.resolve("text.txt"), TestData.text(300 * 1024, 1));
+        Files.write(source.resolve("random.bin"), TestData.random(40_000, 2));
+        Files.write(source.resolve("empty"), new byte[0]);
+        Files.write(source.resolve("large.txt"), TestData.text(5 * 1024 * 1024, 3));
+        Files.write(Files.createDirectories(source.resolve("nested")).resolve("skewed.bin"), TestData.skewed(50_000, 4));
+        archive = dir.resolve("multi.cz");
+    }
+
+    @Test
+    void packsAndExtractsEveryEntry() throws IOException {
+        MultiArchive.Stats packed = MultiArchive.pack(source, archive, 2);
+        assertEquals(NAMES.size(), packed.files);
+        assertTrue(MultiArchive.isMultiArchive(archive));
+
+        List<MultiArchive.Entry> entries = MultiArchive.list(archive);
+        assertEquals(NAMES, entries.stream().map(entry -> entry.name).toList());
+        for (MultiArchive.Entry entry : entries) {
+            assertEquals(Files.size(source.resolve(entry.name)), entry.size, entry.name);
+        }
+        assertEquals(NAMES.size(), MultiArchive.verify(archive).files);
+
+        Path target = dir.resolve("target");
+        MultiArchive.extractAll(archive, target, 2);
+        for (String name : NAMES) {
+            assertArrayEquals(Files.readAllBytes(source.resolve(name)), Files.readAllBytes(target.resolve(name)), name);
+        }
+        Path single = dir.resolve("single");
+        MultiArchive.extract(archive, "nested/skewed.bin", single);
+        assertArrayEquals(Files.readAllBytes(source.resolve("nested/skewed.bin")), Files.readAllBytes(single));
+        assertThrows(IOException.class, () -> MultiArchive.extract(archive, "missing", dir.resolve("missing")));
+    }
+
+    @Test
+    void detectsCorruptEntry() throws IOException {
+        MultiArchive.pack(source, archive, 2);
+        TestData.flipByte(archive, Files.size(archive) / 2);
+        assertThrows(IOException.class, () -> MultiArchive.verify(archive));
+        assertThrows(IOException.class, () -> MultiArchive.extractAll(archive, dir.resolve("corrupt"), 2));
+    }
+
+    @Test
+    void directoryBecomesMultiArchive() throws IOException {
+        // No format or level prompt for a directory
+        String output = MainCliTest.run("comp", source, archive);
+        assertTrue(output.contains("Packed " + NAMES.size() + " files"), output);
+        assertTrue(MultiArchive.isMultiArchive(archive));
+        assertTrue(MainCliTest.run("list", archive).contains("nested/skewed.bin"));
+
+        Path target = dir.resolve("target");
+        assertTrue(MainCliTest.run("decomp", archive, target, "").contains("Decompression successful."));
+        for (String name : NAMES) {
+            assertArrayEquals(Files.readAllBytes(source.resolve(name)), Files.readAllBytes(target.resolve(name)), name);
+        }
+    }
+}
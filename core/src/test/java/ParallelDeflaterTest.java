@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ParallelDeflaterTest {
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void writesOneStandardZlibStream() throws IOException {
+        for (byte[] input : new byte[][] {new byte[0], {42}, TestData.mixed(1024 * 1024, 1)}) {
+            byte[] compressed = ParallelDeflater.compress(input, Main.DEFAULT_LEVEL, ParallelDeflater.MIN_BLOCK_SIZE, pool);
+            assertArrayEquals(input, inflate(compressed));
+        }
+    }
+
+    @Test
+    void primesBlocksWithThePreviousWindow() throws IOException {
+        // Random data repeated across a block boundary only compresses through the dictionary
+        int blockSize = ParallelDeflater.MIN_BLOCK_SIZE;
+        byte[] repeat = TestData.random(16 * 1024, 2);
+        byte[] input = TestData.random(2 * blockSize, 3);
+        System.arraycopy(repeat, 0, input, blockSize - repeat.length, repeat.length);
+        System.arraycopy(repeat, 0, input, blockSize, repeat.length);
+        byte[] compressed = ParallelDeflater.compress(input, Main.DEFAULT_LEVEL, blockSize, pool);
+        assertTrue(compressed.length < input.length - repeat.length / 2, "compressed to " + compressed.length);
+        assertArrayEquals(input, inflate(compressed));
+    }
+
+    @Test
+    void mainRoundTripsBothDeflaters() throws IOException {
+        byte[] input = TestData.mixed(1024 * 1024, 4);
+        for (boolean parallel : new boolean[] {false, true}) {
+            assertArrayEquals(input, Main.inflate(Main.compressWithDeflater(input, parallel)), "parallel " + parallel);
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
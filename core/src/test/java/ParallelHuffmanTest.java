@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ParallelHuffmanTest {
+    private static final int CHUNK = ParallelHuffman.CHUNK_SIZE;
+
+    // Chunk ends fall on every bit position of the shared byte across these
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK + 17, 5 * CHUNK - 3})
+    void matchesTheSequentialEncoder(int length) {
+        byte[] data = TestData.mixed(length + 11, length);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[][] chunkFrequencies = ParallelHuffman.chunkFrequencies(data, 11, length, pool);
+            assertEquals(Math.max(1, (length + CHUNK - 1) / CHUNK), chunkFrequencies.length);
+            int[] frequency = new int[CanonicalHuffman.SYMBOLS];
+            Main.addFrequency(data, 11, length, frequency);
+            int[] merged = new int[CanonicalHuffman.SYMBOLS];
+            for (int[] chunk : chunkFrequencies) {
+                for (int symbol = 0; symbol < CanonicalHuffman.SYMBOLS; symbol++) {
+                    merged[symbol] += chunk[symbol];
+                }
+            }
+            assertArrayEquals(frequency, merged);
+
+            int[] lengths = CanonicalHuffman.codeLengths(frequency);
+            int[] codes = CanonicalHuffman.canonicalCodes(lengths);
+            byte[] expected = new byte[length + 8];
+            int expectedEnd = CanonicalHuffman.encode(data, 11, 11 + length, codes, lengths, expected, 3);
+            byte[] actual = new byte[length + 8];
+            int actualEnd = ParallelHuffman.encode(data, 11, length, chunkFrequencies, codes, lengths, actual, 3, pool);
+            assertEquals(expectedEnd, actualEnd);
+            assertArrayEquals(Arrays.copyOf(expected, expectedEnd), Arrays.copyOf(actual, actualEnd));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Random bytes are all literals, so with more than one core every full token
+    // block takes the parallel encoder
+    @Test
+    void encodesFullTokenBlocksInParallel() throws ZipException {
+        byte[] input = TestData.random(3 * TokenBuffer.DEFAULT_CAPACITY + 100, 1);
+        assertTrue(TokenBuffer.DEFAULT_CAPACITY * TokenBuffer.TOKEN_SIZE >= ParallelHuffman.PARALLEL_THRESHOLD);
+        byte[] encoded = Main.encodeBlock(input, Main.DEFAULT_LEVEL, Main.EntropyCoder.HUFFMAN);
+        assertArrayEquals(input, Main.decodeBlock(encoded));
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SharedDictionaryTest {
+    @TempDir
+    Path dir;
+
+    // Small pages that share their markup and differ in the body
+    private static byte[] page(long seed) {
+        String body = new String(TestData.text(600, seed), StandardCharsets.ISO_8859_1);
+        return ("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><link rel=\"stylesheet\" href=\"/site.css\">"
+                + "<title>Page " + seed + "</title></head><body><nav class=\"top\"><a href=\"/\">Home</a>"
+                + "<a href=\"/docs\">Docs</a><a href=\"/about\">About</a></nav><main>" + body
+                + "</main><footer class=\"bottom\">All rights reserved.</footer></body></html>")
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<byte[]> samples(int count, long seed) {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            samples.add(page(seed + i));
+        }
+        return samples;
+    }
+
+    private static byte[] compress(byte[] input, byte[] dictionary) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new CompressingOutputStream(compressed, CompressingOutputStream.Mode.DEFLATE,
+                Main.DEFAULT_LEVEL, dictionary)) {
+            out.write(input);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Test
+    void trainsWithinTheRequestedSize() {
+        List<byte[]> samples = samples(50, 1);
+        byte[] dictionary = SharedDictionary.train(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096, dictionary.length + " bytes");
+        assertArrayEquals(dictionary, SharedDictionary.train(samples, 4096));
+        assertThrows(IllegalArgumentException.class, () -> SharedDictionary.train(samples, 0));
+        assertThrows(IllegalArgumentException.class, () -> SharedDictionary.train(samples, SharedDictionary.MAX_SIZE + 1));
+    }
+
+    @Test
+    void shrinksSmallDocuments() throws IOException {
+        byte[] dictionary = SharedDictionary.train(samples(50, 100), SharedDictionary.MAX_SIZE);
+        SharedDictionary.register(dictionary);
+        assertSame(dictionary, SharedDictionary.forId(SharedDictionary.id(dictionary)));
+
+        byte[] document = page(1000);
+        byte[] plain = compress(document, null);
+        byte[] primed = compress(document, dictionary);
+        assertTrue(primed.length < plain.length, primed.length + " >= " + plain.length);
+        assertArrayEquals(document, CompressingStreamTest.decompress(primed, CompressingOutputStream.Mode.DEFLATE));
+
+        Path archive = Files.write(dir.resolve("primed.cz"), primed);
+        assertEquals(SharedDictionary.id(dictionary), SharedDictionary.requiredId(archive));
+        assertNull(SharedDictionary.requiredId(Files.write(dir.resolve("plain.cz"), plain)));
+        assertNull(SharedDictionary.requiredId(Files.write(dir.resolve("short"), new byte[] {0x78})));
+    }
+
+    @Test
+    void rejectsStreamsWithAnUnknownDictionary() throws IOException {
+        // Never registered, so nothing can supply it on decompression
+        byte[] dictionary = TestData.random(1000, 2);
+        byte[] compressed = compress(page(2000), dictionary);
+        ZipException e = assertThrows(ZipException.class,
+                () -> CompressingStreamTest.decompress(compressed, CompressingOutputStream.Mode.DEFLATE));
+        assertTrue(e.getMessage().contains(SharedDictionary.idString(SharedDictionary.id(dictionary))), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new CompressingOutputStream(new ByteArrayOutputStream(),
+                CompressingOutputStream.Mode.LZ77_HUFFMAN, Main.DEFAULT_LEVEL, dictionary));
+    }
+
+    @Test
+    void cliTrainsAndUsesADictionary() throws IOException {
+        Path samples = Files.createDirectories(dir.resolve("samples"));
+        for (int i = 0; i < 40; i++) {
+            Files.write(samples.resolve("page" + i + ".html"), page(3000 + i));
+        }
+        Path dictionary = dir.resolve("pages.dict");
+        String output = MainCliTest.run("train", samples, dictionary);
+        assertTrue(output.contains("bytes from 40 samples."), output);
+
+        byte[] document = page(4000);
+        Path source = Files.write(dir.resolve("page.html"), document);
+        Path archive = dir.resolve("page.cz");
+        output = MainCliTest.run("comp", source, archive, "dictionary", dictionary, "");
+        assertTrue(output.contains("Compression successful."), output);
+        assertEquals(SharedDictionary.id(Files.readAllBytes(dictionary)), SharedDictionary.requiredId(archive));
+
+        Path restored = dir.resolve("restored.html");
+        output = MainCliTest.run("decomp", archive, restored);
+        assertTrue(output.contains("Decompression successful."), output);
+        assertArrayEquals(document, Files.readAllBytes(restored));
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Deterministic inputs for the round-trip tests
+final class TestData {
+    private static final String[] WORDS = {
+        "the", "archive", "block", "stream", "of", "compressed", "data", "and", "a", "match",
+        "offset", "length", "literal", "window", "table", "decode", "{\"id\":", "\"name\":", "},", "\n"
+    };
+
+    private TestData() {
+    }
+
+    static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // Few distinct bytes with very unequal counts, and no long repeats
+    static byte[] skewed(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(100);
+            data[i] = (byte) (r < 70 ? 'a' : r < 90 ? 'b' : r < 97 ? 'c' : random.nextInt(256));
+        }
+        return data;
+    }
+
+    // Words from a small vocabulary: short and mid-range matches, like text
+    static byte[] text(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return builder.substring(0, length).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Text, random and skewed thirds, so per-block choices differ along the input
+    static byte[] mixed(int length, long seed) {
+        byte[] data = new byte[length];
+        int third = length / 3;
+        System.arraycopy(text(third, seed), 0, data, 0, third);
+        System.arraycopy(random(third, seed + 1), 0, data, third, third);
+        System.arraycopy(skewed(length - 2 * third, seed + 2), 0, data, 2 * third, length - 2 * third);
+        return data;
+    }
+
+    // Inverts every bit of the byte at position
+    static void flipByte(Path file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(~b);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBufferTest {
+
+    @Test
+    void encodesTokensAndCountsEachField() {
+        List<byte[]> blocks = new ArrayList<>();
+        List<int[]> offsetHighBytes = new ArrayList<>();
+        TokenBuffer tokens = new TokenBuffer(4, buffer -> {
+            byte[] encoded = new byte[buffer.size() * TokenBuffer.TOKEN_SIZE];
+            buffer.encode(encoded, 0);
+            blocks.add(encoded);
+            offsetHighBytes.add(buffer.frequency(0));
+        });
+        tokens.addLiteral((byte) 'a');
+        tokens.add(0x012345, 0x0102, (byte) 'b');
+        assertEquals(2, tokens.size());
+        assertEquals(1 + 0x0102 + 1, tokens.inputLength());
+        assertEquals(1, tokens.frequency(5)['a']);
+        assertEquals(1, tokens.frequency(2)[0x45]);
+        assertEquals(1, tokens.frequency(3)[0x01]);
+        int[] all = tokens.frequency();
+        assertEquals(2 * TokenBuffer.TOKEN_SIZE, Arrays.stream(all).sum());
+        // 0x01 is the offset high byte and the length high byte of the match
+        assertEquals(2, all[0x01]);
+
+        tokens.addLiteral((byte) 'c');
+        tokens.addLiteral((byte) 'd');
+        // The fourth token fills the block and hands it to the sink
+        assertEquals(1, blocks.size());
+        assertEquals(0, tokens.size());
+        assertEquals(4, tokens.totalTokens());
+        assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 'a', 0x01, 0x23, 0x45, 0x01, 0x02, 'b',
+                0, 0, 0, 0, 0, 'c', 0, 0, 0, 0, 0, 'd'}, blocks.get(0));
+        assertEquals(3, offsetHighBytes.get(0)[0]);
+        assertEquals(0, Arrays.stream(tokens.frequency()).sum());
+
+        tokens.addLiteral((byte) 'e');
+        tokens.flush();
+        tokens.flush();
+        assertEquals(2, blocks.size());
+        assertEquals(5, tokens.totalTokens());
+    }
+
+    @Test
+    void tokensCoverTheInputAtEveryLevel() {
+        byte[] input = TestData.mixed(100_000, 1);
+        for (int level = Main.MIN_LEVEL; level <= Main.MAX_LEVEL; level++) {
+            long[] covered = new long[1];
+            TokenBuffer tokens = new TokenBuffer(1024, buffer -> covered[0] += buffer.inputLength());
+            long count = Main.lz77Compress(input, level, tokens);
+            assertEquals(input.length, covered[0], "level " + level);
+            assertEquals(count, tokens.totalTokens(), "level " + level);
+        }
+    }
+
+    @Test
+    void countsDefaultLevelTokens() {
+        byte[] input = TestData.text(100_000, 2);
+        long count = Main.lz77Compress(input, Main.DEFAULT_LEVEL, new TokenBuffer(buffer -> { }));
+        assertEquals(count, Main.lz77Compress(input));
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class ZlibCodecTest {
+
+    static Stream<Arguments> inputs() {
+        return Stream.of(
+                Arguments.of("empty", new byte[0]),
+                Arguments.of("one byte", new byte[] {42}),
+                Arguments.of("random", TestData.random(100_000, 1)),
+                Arguments.of("skewed", TestData.skewed(100_000, 2)),
+                Arguments.of("text", TestData.text(100_000, 3)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("inputs")
+    void roundTripsAtEveryLevel(String name, byte[] input) throws ZipException {
+        for (int level = Main.MIN_LEVEL; level <= Main.MAX_LEVEL; level++) {
+            byte[] compressed = ZlibCodec.compress(input, level);
+            assertTrue(compressed.length <= ZlibCodec.maxCompressedLength(input.length));
+            assertArrayEquals(input, ZlibCodec.decompress(compressed), "level " + level);
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("inputs")
+    void roundTripsIntoCallerBuffers(String name, byte[] input) throws ZipException {
+        byte[] padded = new byte[input.length + 10];
+        System.arraycopy(input, 0, padded, 7, input.length);
+        byte[] compressed = new byte[5 + ZlibCodec.maxCompressedLength(input.length)];
+        int length = ZlibCodec.compress(padded, 7, input.length, compressed, 5, Main.DEFAULT_LEVEL);
+        byte[] output = new byte[input.length + 3];
+        assertEquals(input.length, ZlibCodec.decompress(compressed, 5, length, output, 3));
+        assertArrayEquals(input, Arrays.copyOfRange(output, 3, output.length));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("inputs")
+    void roundTripsThroughByteBuffers(String name, byte[] input) throws ZipException {
+        for (boolean direct : new boolean[] {false, true}) {
+            ByteBuffer in = direct ? ByteBuffer.allocateDirect(input.length).put(input).flip() : ByteBuffer.wrap(input);
+            int bound = ZlibCodec.maxCompressedLength(input.length);
+            ByteBuffer compressed = direct ? ByteBuffer.allocateDirect(bound) : ByteBuffer.allocate(bound);
+            ZlibCodec.compress(in, compressed);
+            assertEquals(0, in.remaining());
+            compressed.flip();
+            ByteBuffer out = direct ? ByteBuffer.allocateDirect(input.length) : ByteBuffer.allocate(input.length);
+            ZlibCodec.decompress(compressed, out);
+            byte[] decoded = new byte[out.flip().remaining()];
+            out.get(decoded);
+            assertArrayEquals(input, decoded, direct ? "direct" : "heap");
+        }
+    }
+
+    @Test
+    void rejectsCorruptAndTruncatedInput() throws ZipException {
+        byte[] compressed = ZlibCodec.compress(TestData.text(100_000, 4));
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(ZipException.class, () -> ZlibCodec.decompress(truncated));
+        byte[] corrupt = compressed.clone();
+        corrupt[corrupt.length / 2] ^= (byte) 0xFF;
+        assertThrows(ZipException.class, () -> ZlibCodec.decompress(corrupt));
+        assertThrows(ZipException.class, () -> ZlibCodec.decompress(compressed, 0, compressed.length, new byte[1000], 0));
+    }
+
+    @Test
+    void rejectsShortOutputBuffers() {
+        byte[] input = TestData.random(10_000, 5);
+        assertThrows(ZipException.class, () -> ZlibCodec.compress(input, 0, input.length, new byte[100], 0, Main.DEFAULT_LEVEL));
+        assertThrows(ZipException.class, () -> ZlibCodec.compress(ByteBuffer.wrap(input), ByteBuffer.allocate(100)));
+    }
+
+    // Doubling past a gigabyte would overflow; growth stops at the array limit instead
+    @Test
+    void growsUpToTheArrayLimit() throws ZipException {
+        assertEquals(128, ZlibCodec.grow(64));
+        assertEquals(ZlibCodec.MAX_ARRAY_LENGTH, ZlibCodec.grow((1 << 30) + 1));
+        assertThrows(ZipException.class, () -> ZlibCodec.grow(ZlibCodec.MAX_ARRAY_LENGTH));
+    }
+
+    @Test
+    void sharesThePoolAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int task = 0; task < 64; task++) {
+                byte[] input = TestData.mixed(30_000, task);
+                int level = Main.MIN_LEVEL + task % Main.MAX_LEVEL;
+                futures.add(executor.submit(() -> {
+                    assertArrayEquals(input, ZlibCodec.decompress(ZlibCodec.compress(input, level)));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}